@@ -0,0 +1,60 @@
+package gateway.service.proxy;
+
+import gateway.service.dtos.RouteConfig;
+import gateway.service.utils.Constants;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// rate limit checks on the request path, eg: ./gradlew jmh --args='RateLimiterBenchmark'
+// one bucket shared by every thread is the worst case for its compare and set
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+  private static final String API_NAME = "benchmark";
+
+  private RateLimiter.Bucket sharedBucket;
+  private RouteConfig routeConfig;
+
+  @State(Scope.Thread)
+  public static class Client {
+    private final String clientId = UUID.randomUUID().toString();
+  }
+
+  @Setup
+  public void setup() {
+    sharedBucket = new RateLimiter.Bucket(API_NAME, 1000, 1000, null);
+    routeConfig =
+        new RouteConfig(
+            API_NAME,
+            Map.of(
+                API_NAME + Constants.RC_RL_ROUTE_REQUESTS_PER_SECOND, "100000",
+                API_NAME + Constants.RC_RL_CLIENT_REQUESTS_PER_SECOND, "1000"));
+  }
+
+  @Benchmark
+  public boolean sharedBucket() {
+    return sharedBucket.tryAcquire(System.nanoTime());
+  }
+
+  @Benchmark
+  public boolean routeAndClientBuckets(final Client client) {
+    return RateLimiter.tryAcquire(routeConfig, client.clientId);
+  }
+}
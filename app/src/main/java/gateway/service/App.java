@@ -18,6 +18,7 @@ public class App {
   public static void main(String[] args) throws Exception {
     logger.info("Starting Gateway App...");
     validateInitArgs();
+    Routes.initFromCache();
     Routes.refreshRoutes();
     new NettyServer().start();
     logger.info("Started Gateway App...");
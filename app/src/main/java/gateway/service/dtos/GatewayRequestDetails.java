@@ -1,5 +1,7 @@
 package gateway.service.dtos;
 
+import gateway.service.utils.RouteIndex;
+import gateway.service.utils.RouteSnapshot;
 import io.netty.handler.codec.http.HttpMethod;
 import java.io.Serializable;
 import java.util.UUID;
@@ -12,23 +14,30 @@ public class GatewayRequestDetails implements Serializable {
   private final String apiName;
   private final String clientId;
   private final String targetBaseUrl;
+  private final RouteIndex.RouteMatch routeMatch;
+  // routes version the request was matched with, used for everything else routes provide to it
+  private final transient RouteSnapshot routeSnapshot;
+  private final long routesVersion;
 
   private final long startTime;
 
   public GatewayRequestDetails(
       final HttpMethod requestMethod,
       final String requestUri,
-      final String apiName,
       final String clientId,
-      final String targetBaseUrl,
+      final RouteSnapshot routeSnapshot,
+      final RouteIndex.RouteMatch routeMatch,
       final long startTime) {
     this.requestId = UUID.randomUUID().toString();
     this.requestMethod = requestMethod;
     this.requestUri = requestUri;
-    this.apiName = apiName;
-    this.requestUriLessApiName = this.setRequestUriLessApiName(requestUri, apiName);
+    this.apiName = routeMatch.apiName();
+    this.requestUriLessApiName = routeMatch.requestUriLessApiName();
     this.clientId = clientId;
-    this.targetBaseUrl = targetBaseUrl;
+    this.targetBaseUrl = routeMatch.targetBaseUrl();
+    this.routeMatch = routeMatch;
+    this.routeSnapshot = routeSnapshot;
+    this.routesVersion = routeSnapshot.version();
     this.startTime = startTime;
   }
 
@@ -60,13 +69,20 @@ public class GatewayRequestDetails implements Serializable {
     return targetBaseUrl;
   }
 
-  public long getStartTime() {
-    return startTime;
+  public RouteIndex.RouteMatch getRouteMatch() {
+    return routeMatch;
+  }
+
+  public RouteSnapshot getRouteSnapshot() {
+    return routeSnapshot;
   }
 
-  // transform /gatewaysvc/tests/api to /tests/api
-  private String setRequestUriLessApiName(final String requestUri, final String apiName) {
-    return requestUri.replace("/" + apiName, "");
+  public long getRoutesVersion() {
+    return routesVersion;
+  }
+
+  public long getStartTime() {
+    return startTime;
   }
 
   @Override
@@ -92,6 +108,8 @@ public class GatewayRequestDetails implements Serializable {
         + '\''
         + clientId
         + '\''
+        + ", routesVersion="
+        + routesVersion
         + '}';
   }
 }
@@ -0,0 +1,316 @@
+package gateway.service.dtos;
+
+import gateway.service.utils.Constants;
+import java.util.Map;
+
+public class RouteConfig {
+  private final String apiName;
+  private final int poolMaxIdle;
+  private final int poolKeepAliveMinutes;
+  private final int maxRequestsPerHost;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final int writeTimeoutMillis;
+  private final int maxRetries;
+  private final int hedgePercentile;
+  private final String healthPath;
+  private final String upstreamProtocol;
+  private final boolean cacheEnabled;
+  private final int cbFailureRatePercent;
+  private final int cbSlowCallMillis;
+  private final int cbOpenTimeoutMillis;
+  private final int cbHalfOpenProbes;
+  private final int rlRouteRequestsPerSecond;
+  private final int rlRouteBurst;
+  private final int rlClientRequestsPerSecond;
+  private final int rlClientBurst;
+  private final int clInitialLimit;
+  private final int clMinLimit;
+  private final int clMaxLimit;
+  private final int clClientMaxInFlight;
+
+  public RouteConfig(final String apiName, final Map<String, String> routeConfigs) {
+    this.apiName = apiName;
+    this.poolMaxIdle =
+        getIntValue(routeConfigs, Constants.RC_POOL_MAX_IDLE, Constants.PROXY_POOL_MAX_IDLE);
+    this.poolKeepAliveMinutes =
+        getIntValue(
+            routeConfigs,
+            Constants.RC_POOL_KEEP_ALIVE_MINUTES,
+            Constants.PROXY_POOL_KEEP_ALIVE_MINUTES);
+    this.maxRequestsPerHost =
+        getIntValue(
+            routeConfigs,
+            Constants.RC_MAX_REQUESTS_PER_HOST,
+            Constants.PROXY_MAX_REQUESTS_PER_HOST);
+    this.connectTimeoutMillis =
+        getIntValue(
+            routeConfigs,
+            Constants.RC_CONNECT_TIMEOUT_MILLIS,
+            Constants.PROXY_CONNECT_TIMEOUT_MILLIS);
+    this.readTimeoutMillis =
+        getIntValue(
+            routeConfigs, Constants.RC_READ_TIMEOUT_MILLIS, Constants.PROXY_READ_TIMEOUT_MILLIS);
+    this.writeTimeoutMillis =
+        getIntValue(
+            routeConfigs, Constants.RC_WRITE_TIMEOUT_MILLIS, Constants.PROXY_WRITE_TIMEOUT_MILLIS);
+    // retries and hedging are off unless configured
+    this.maxRetries =
+        getIntValue(routeConfigs, Constants.RC_MAX_RETRIES, Constants.PROXY_MAX_RETRIES);
+    this.hedgePercentile =
+        Math.min(99, getIntValue(routeConfigs, Constants.RC_HEDGE_PERCENTILE, 0));
+    // active health probes are off unless the route has a health path, eg: /health
+    this.healthPath = routeConfigs.getOrDefault(apiName + Constants.RC_HEALTH_PATH, "").trim();
+    // eg: h2c, to multiplex requests to a cleartext backend over http/2 connections
+    this.upstreamProtocol =
+        routeConfigs.getOrDefault(apiName + Constants.RC_UPSTREAM_PROTOCOL, "").trim();
+    // get responses are cached only for routes that opt in, as far as upstream allows it
+    this.cacheEnabled =
+        Boolean.parseBoolean(
+            routeConfigs.getOrDefault(apiName + Constants.RC_CACHE_ENABLED, "false").trim());
+    this.cbFailureRatePercent =
+        Math.min(
+            100,
+            getIntValue(
+                routeConfigs,
+                Constants.RC_CB_FAILURE_RATE_PERCENT,
+                Constants.CB_FAILURE_RATE_PERCENT));
+    this.cbSlowCallMillis =
+        getIntValue(routeConfigs, Constants.RC_CB_SLOW_CALL_MILLIS, Constants.CB_SLOW_CALL_MILLIS);
+    this.cbOpenTimeoutMillis =
+        getIntValue(
+            routeConfigs, Constants.RC_CB_OPEN_TIMEOUT_MILLIS, Constants.CB_OPEN_TIMEOUT_MILLIS);
+    this.cbHalfOpenProbes =
+        getIntValue(routeConfigs, Constants.RC_CB_HALF_OPEN_PROBES, Constants.CB_HALF_OPEN_PROBES);
+    // route wide limit is off unless configured, bursts default to one second of requests
+    this.rlRouteRequestsPerSecond =
+        getIntValue(
+            routeConfigs,
+            Constants.RC_RL_ROUTE_REQUESTS_PER_SECOND,
+            Constants.RL_ROUTE_REQUESTS_PER_SECOND);
+    this.rlRouteBurst =
+        getIntValue(routeConfigs, Constants.RC_RL_ROUTE_BURST, rlRouteRequestsPerSecond);
+    this.rlClientRequestsPerSecond =
+        getIntValue(
+            routeConfigs,
+            Constants.RC_RL_CLIENT_REQUESTS_PER_SECOND,
+            Constants.RL_CLIENT_REQUESTS_PER_SECOND);
+    this.rlClientBurst =
+        getIntValue(routeConfigs, Constants.RC_RL_CLIENT_BURST, rlClientRequestsPerSecond);
+    this.clMinLimit = getIntValue(routeConfigs, Constants.RC_CL_MIN_LIMIT, Constants.CL_MIN_LIMIT);
+    this.clMaxLimit =
+        Math.max(
+            clMinLimit,
+            getIntValue(routeConfigs, Constants.RC_CL_MAX_LIMIT, Constants.CL_MAX_LIMIT));
+    this.clInitialLimit =
+        Math.min(
+            clMaxLimit,
+            Math.max(
+                clMinLimit,
+                getIntValue(
+                    routeConfigs, Constants.RC_CL_INITIAL_LIMIT, Constants.CL_INITIAL_LIMIT)));
+    // per client limit is off unless configured
+    this.clClientMaxInFlight =
+        getIntValue(
+            routeConfigs, Constants.RC_CL_CLIENT_MAX_IN_FLIGHT, Constants.CL_CLIENT_MAX_IN_FLIGHT);
+  }
+
+  public String getApiName() {
+    return apiName;
+  }
+
+  public int getPoolMaxIdle() {
+    return poolMaxIdle;
+  }
+
+  public int getPoolKeepAliveMinutes() {
+    return poolKeepAliveMinutes;
+  }
+
+  public int getMaxRequestsPerHost() {
+    return maxRequestsPerHost;
+  }
+
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  public int getReadTimeoutMillis() {
+    return readTimeoutMillis;
+  }
+
+  public int getWriteTimeoutMillis() {
+    return writeTimeoutMillis;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public int getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  public String getHealthPath() {
+    return healthPath;
+  }
+
+  public String getUpstreamProtocol() {
+    return upstreamProtocol;
+  }
+
+  public boolean isCacheEnabled() {
+    return cacheEnabled;
+  }
+
+  public int getCbFailureRatePercent() {
+    return cbFailureRatePercent;
+  }
+
+  public int getCbSlowCallMillis() {
+    return cbSlowCallMillis;
+  }
+
+  public int getCbOpenTimeoutMillis() {
+    return cbOpenTimeoutMillis;
+  }
+
+  public int getCbHalfOpenProbes() {
+    return cbHalfOpenProbes;
+  }
+
+  public int getRlRouteRequestsPerSecond() {
+    return rlRouteRequestsPerSecond;
+  }
+
+  public int getRlRouteBurst() {
+    return rlRouteBurst;
+  }
+
+  public int getRlClientRequestsPerSecond() {
+    return rlClientRequestsPerSecond;
+  }
+
+  public int getRlClientBurst() {
+    return rlClientBurst;
+  }
+
+  public int getClInitialLimit() {
+    return clInitialLimit;
+  }
+
+  public int getClMinLimit() {
+    return clMinLimit;
+  }
+
+  public int getClMaxLimit() {
+    return clMaxLimit;
+  }
+
+  public int getClClientMaxInFlight() {
+    return clClientMaxInFlight;
+  }
+
+  public boolean isSameClient(final RouteConfig other) {
+    return other != null
+        && poolMaxIdle == other.poolMaxIdle
+        && poolKeepAliveMinutes == other.poolKeepAliveMinutes
+        && maxRequestsPerHost == other.maxRequestsPerHost
+        && connectTimeoutMillis == other.connectTimeoutMillis
+        && readTimeoutMillis == other.readTimeoutMillis
+        && writeTimeoutMillis == other.writeTimeoutMillis
+        && hedgePercentile == other.hedgePercentile
+        && upstreamProtocol.equals(other.upstreamProtocol);
+  }
+
+  public boolean isSameCircuitBreaker(final RouteConfig other) {
+    return other != null
+        && cbFailureRatePercent == other.cbFailureRatePercent
+        && cbSlowCallMillis == other.cbSlowCallMillis
+        && cbOpenTimeoutMillis == other.cbOpenTimeoutMillis
+        && cbHalfOpenProbes == other.cbHalfOpenProbes;
+  }
+
+  public boolean isSameConcurrencyLimit(final RouteConfig other) {
+    return other != null
+        && clInitialLimit == other.clInitialLimit
+        && clMinLimit == other.clMinLimit
+        && clMaxLimit == other.clMaxLimit
+        && clClientMaxInFlight == other.clClientMaxInFlight;
+  }
+
+  // missing or invalid values fall back to the gateway wide default
+  private int getIntValue(
+      final Map<String, String> routeConfigs, final String suffix, final int defaultValue) {
+    final String value = routeConfigs.get(apiName + suffix);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      final int intValue = Integer.parseInt(value.trim());
+      return intValue > 0 ? intValue : defaultValue;
+    } catch (NumberFormatException ignored) {
+      return defaultValue;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RouteConfig{"
+        + "apiName="
+        + '\''
+        + apiName
+        + '\''
+        + ", poolMaxIdle="
+        + poolMaxIdle
+        + ", poolKeepAliveMinutes="
+        + poolKeepAliveMinutes
+        + ", maxRequestsPerHost="
+        + maxRequestsPerHost
+        + ", connectTimeoutMillis="
+        + connectTimeoutMillis
+        + ", readTimeoutMillis="
+        + readTimeoutMillis
+        + ", writeTimeoutMillis="
+        + writeTimeoutMillis
+        + ", maxRetries="
+        + maxRetries
+        + ", hedgePercentile="
+        + hedgePercentile
+        + ", healthPath="
+        + '\''
+        + healthPath
+        + '\''
+        + ", upstreamProtocol="
+        + '\''
+        + upstreamProtocol
+        + '\''
+        + ", cacheEnabled="
+        + cacheEnabled
+        + ", cbFailureRatePercent="
+        + cbFailureRatePercent
+        + ", cbSlowCallMillis="
+        + cbSlowCallMillis
+        + ", cbOpenTimeoutMillis="
+        + cbOpenTimeoutMillis
+        + ", cbHalfOpenProbes="
+        + cbHalfOpenProbes
+        + ", rlRouteRequestsPerSecond="
+        + rlRouteRequestsPerSecond
+        + ", rlRouteBurst="
+        + rlRouteBurst
+        + ", rlClientRequestsPerSecond="
+        + rlClientRequestsPerSecond
+        + ", rlClientBurst="
+        + rlClientBurst
+        + ", clInitialLimit="
+        + clInitialLimit
+        + ", clMinLimit="
+        + clMinLimit
+        + ", clMaxLimit="
+        + clMaxLimit
+        + ", clClientMaxInFlight="
+        + clClientMaxInFlight
+        + '}';
+  }
+}
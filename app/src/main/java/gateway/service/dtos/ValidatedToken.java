@@ -0,0 +1,22 @@
+package gateway.service.dtos;
+
+import io.github.bibekaryal86.shdsvc.dtos.AuthToken;
+
+public class ValidatedToken {
+  private final AuthToken authToken;
+  // signed once per validation, forwarded to upstream apps as x-auth-token
+  private final String xAuthToken;
+
+  public ValidatedToken(final AuthToken authToken, final String xAuthToken) {
+    this.authToken = authToken;
+    this.xAuthToken = xAuthToken;
+  }
+
+  public AuthToken getAuthToken() {
+    return authToken;
+  }
+
+  public String getXAuthToken() {
+    return xAuthToken;
+  }
+}
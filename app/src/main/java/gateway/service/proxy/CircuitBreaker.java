@@ -1,73 +1,259 @@
 package gateway.service.proxy;
 
-import java.time.Duration;
+import gateway.service.dtos.RouteConfig;
+import gateway.service.utils.Constants;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+// one breaker per route shared by all connections, state changes are compare and set only so that
+// concurrent event loop and okhttp threads never lose a transition
 public class CircuitBreaker {
+  private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  private static final Map<String, CircuitBreaker> CIRCUIT_BREAKERS = new ConcurrentHashMap<>();
+
+  // outcome flags kept in the low bits of a ring buffer slot, the rest is the call end time
+  private static final long OUTCOME_RECORDED = 1;
+  private static final long OUTCOME_FAILURE = 2;
+  private static final long OUTCOME_SLOW = 4;
+  private static final int OUTCOME_BITS = 3;
+
   private enum CircuitBreakerState {
     CLOSED,
     OPEN,
     HALF_OPEN
   }
 
-  private CircuitBreakerState state = CircuitBreakerState.CLOSED;
-  private final AtomicInteger FAILURE_COUNT = new AtomicInteger(0);
-  private final AtomicLong LAST_FAILURE_TIME = new AtomicLong(0);
+  // probe counters belong to one half open period, a new period starts with fresh counters
+  private record Status(
+      CircuitBreakerState state,
+      long sinceMillis,
+      AtomicInteger probePermits,
+      AtomicInteger probeSuccesses) {}
 
-  private final Integer FAILURE_THRESHOLD;
-  private final Duration OPEN_TIMEOUT;
+  private final RouteConfig routeConfig;
+  private final AtomicReference<Status> status;
+  private final AtomicLongArray outcomes = new AtomicLongArray(Constants.CB_WINDOW_SIZE);
+  private final AtomicInteger outcomeCursor = new AtomicInteger(0);
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder opened = new LongAdder();
 
-  public CircuitBreaker(final int failureThreshold, final Duration openTimeout) {
-    this.FAILURE_THRESHOLD = failureThreshold;
-    this.OPEN_TIMEOUT = openTimeout;
+  private CircuitBreaker(final RouteConfig routeConfig) {
+    this.routeConfig = routeConfig;
+    this.status = new AtomicReference<>(newStatus(CircuitBreakerState.CLOSED));
   }
 
-  public boolean allowRequest() {
-    return switch (state) {
-      case CLOSED -> true;
-      case OPEN -> {
-        if ((System.currentTimeMillis() - LAST_FAILURE_TIME.get()) >= OPEN_TIMEOUT.toMillis()) {
-          state = CircuitBreakerState.HALF_OPEN;
-          FAILURE_COUNT.set(0);
+  public static CircuitBreaker getCircuitBreaker(final RouteConfig routeConfig) {
+    final String apiName = routeConfig.getApiName();
+    final CircuitBreaker circuitBreaker = CIRCUIT_BREAKERS.get(apiName);
+    if (circuitBreaker != null && circuitBreaker.routeConfig.isSameCircuitBreaker(routeConfig)) {
+      return circuitBreaker;
+    }
+    // first call for the route, or its breaker settings changed in a routes refresh
+    return CIRCUIT_BREAKERS.compute(
+        apiName,
+        (key, existing) ->
+            existing != null && existing.routeConfig.isSameCircuitBreaker(routeConfig)
+                ? existing
+                : new CircuitBreaker(routeConfig));
+  }
+
+  public static Map<String, Object> getStats() {
+    final Map<String, Object> stats = new TreeMap<>();
+    CIRCUIT_BREAKERS.forEach(
+        (apiName, circuitBreaker) -> stats.put(apiName, circuitBreaker.stats()));
+    return stats;
+  }
+
+  // every permitted call has to end in exactly one of onSuccess, onFailure or onIgnored
+  public boolean tryAcquirePermission() {
+    while (true) {
+      final Status current = status.get();
+      switch (current.state()) {
+        case CLOSED -> {
+          return true;
+        }
+        case OPEN -> {
+          if (System.currentTimeMillis() - current.sinceMillis()
+              < routeConfig.getCbOpenTimeoutMillis()) {
+            rejected.increment();
+            return false;
+          }
+          // only the thread winning the transition starts the half open period, others retry
+          transition(current, CircuitBreakerState.HALF_OPEN);
+        }
+        case HALF_OPEN -> {
+          final AtomicInteger probePermits = current.probePermits();
+          int permits;
+          do {
+            permits = probePermits.get();
+            if (permits <= 0) {
+              rejected.increment();
+              return false;
+            }
+          } while (!probePermits.compareAndSet(permits, permits - 1));
+          return true;
+        }
+      }
+    }
+  }
+
+  public void onSuccess(final long durationMillis) {
+    onResult(false, durationMillis);
+  }
+
+  public void onFailure(final long durationMillis) {
+    onResult(true, durationMillis);
+  }
+
+  // call ended without telling anything about upstream health, eg: client went away
+  public void onIgnored() {
+    final Status current = status.get();
+    if (current.state() == CircuitBreakerState.HALF_OPEN) {
+      current.probePermits().incrementAndGet();
+    }
+  }
+
+  private void onResult(final boolean isFailure, final long durationMillis) {
+    final boolean isSlow = durationMillis >= routeConfig.getCbSlowCallMillis();
+    final Status current = status.get();
+    switch (current.state()) {
+      case CLOSED -> {
+        record(isFailure, isSlow);
+        if ((isFailure || isSlow) && isThresholdExceeded()) {
+          transition(current, CircuitBreakerState.OPEN);
         }
-        yield false;
       }
       case HALF_OPEN -> {
-        if (FAILURE_COUNT.incrementAndGet() >= FAILURE_THRESHOLD) {
-          state = CircuitBreakerState.OPEN;
-          LAST_FAILURE_TIME.set(System.currentTimeMillis());
+        if (isFailure || isSlow) {
+          transition(current, CircuitBreakerState.OPEN);
+        } else if (current.probeSuccesses().incrementAndGet()
+            >= routeConfig.getCbHalfOpenProbes()) {
+          transition(current, CircuitBreakerState.CLOSED);
         }
-        yield true;
       }
-    };
+      case OPEN -> {
+        // late results of calls permitted before opening say nothing new
+      }
+    }
   }
 
-  public void markSuccess() {
-    if (state == CircuitBreakerState.HALF_OPEN) {
-      FAILURE_COUNT.set(0);
-      state = CircuitBreakerState.CLOSED;
+  private void record(final boolean isFailure, final boolean isSlow) {
+    final long outcome =
+        OUTCOME_RECORDED | (isFailure ? OUTCOME_FAILURE : 0) | (isSlow ? OUTCOME_SLOW : 0);
+    final int slot = Math.floorMod(outcomeCursor.getAndIncrement(), outcomes.length());
+    outcomes.set(slot, (System.currentTimeMillis() << OUTCOME_BITS) | outcome);
+  }
+
+  // only scanned when a failure or slow call is recorded, successes are a single slot write
+  private boolean isThresholdExceeded() {
+    final WindowCounts windowCounts = getWindowCounts();
+    if (windowCounts.calls() < Constants.CB_MINIMUM_CALLS) {
+      return false;
     }
+    return windowCounts.failures() * 100
+            >= (long) routeConfig.getCbFailureRatePercent() * windowCounts.calls()
+        || windowCounts.slowCalls() * 100
+            >= (long) Constants.CB_SLOW_CALL_RATE_PERCENT * windowCounts.calls();
   }
 
-  public void markFailure() {
-    FAILURE_COUNT.incrementAndGet();
-    LAST_FAILURE_TIME.set(System.currentTimeMillis());
+  // last window size calls, but none older than the window duration
+  private WindowCounts getWindowCounts() {
+    final long windowStartMillis = System.currentTimeMillis() - Constants.CB_WINDOW_MILLIS;
+    int calls = 0;
+    int failures = 0;
+    int slowCalls = 0;
+    for (int i = 0; i < outcomes.length(); i++) {
+      final long outcome = outcomes.get(i);
+      if ((outcome & OUTCOME_RECORDED) == 0 || (outcome >>> OUTCOME_BITS) < windowStartMillis) {
+        continue;
+      }
+      calls++;
+      if ((outcome & OUTCOME_FAILURE) != 0) {
+        failures++;
+      }
+      if ((outcome & OUTCOME_SLOW) != 0) {
+        slowCalls++;
+      }
+    }
+    return new WindowCounts(calls, failures, slowCalls);
+  }
 
-    if (FAILURE_COUNT.get() >= FAILURE_THRESHOLD) {
-      state = CircuitBreakerState.OPEN;
+  private void transition(final Status current, final CircuitBreakerState newState) {
+    if (!status.compareAndSet(current, newStatus(newState))) {
+      return;
+    }
+    if (newState == CircuitBreakerState.OPEN) {
+      opened.increment();
+    }
+    if (newState == CircuitBreakerState.CLOSED) {
+      // outcomes from before opening must not trip the breaker again right away
+      for (int i = 0; i < outcomes.length(); i++) {
+        outcomes.set(i, 0);
+      }
     }
+    logger.warn(
+        "Circuit Breaker Transition: [{}] | [{}] -> [{}]",
+        routeConfig.getApiName(),
+        current.state(),
+        newState);
   }
 
+  private Status newStatus(final CircuitBreakerState state) {
+    return new Status(
+        state,
+        System.currentTimeMillis(),
+        new AtomicInteger(routeConfig.getCbHalfOpenProbes()),
+        new AtomicInteger(0));
+  }
+
+  private Map<String, Object> stats() {
+    final Status current = status.get();
+    final WindowCounts windowCounts = getWindowCounts();
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("state", current.state());
+    stats.put("since", current.sinceMillis());
+    stats.put("windowCalls", windowCounts.calls());
+    stats.put("windowFailures", windowCounts.failures());
+    stats.put("windowSlowCalls", windowCounts.slowCalls());
+    stats.put("failureRatePercent", routeConfig.getCbFailureRatePercent());
+    stats.put("slowCallMillis", routeConfig.getCbSlowCallMillis());
+    stats.put("openTimeoutMillis", routeConfig.getCbOpenTimeoutMillis());
+    stats.put(
+        "probePermits",
+        current.state() == CircuitBreakerState.HALF_OPEN ? current.probePermits().get() : 0);
+    stats.put("opened", opened.sum());
+    stats.put("rejected", rejected.sum());
+    return stats;
+  }
+
+  private record WindowCounts(int calls, int failures, int slowCalls) {}
+
   @Override
   public String toString() {
+    final Status current = status.get();
+    final WindowCounts windowCounts = getWindowCounts();
     return "CircuitBreaker: [ "
-        + "State: "
-        + state
-        + ", Failure Count: "
-        + FAILURE_COUNT
-        + ", Open Timeout: "
-        + OPEN_TIMEOUT
+        + "Api Name: "
+        + routeConfig.getApiName()
+        + ", State: "
+        + current.state()
+        + ", Window Calls: "
+        + windowCounts.calls()
+        + ", Window Failures: "
+        + windowCounts.failures()
+        + ", Window Slow Calls: "
+        + windowCounts.slowCalls()
+        + ", Open Timeout Millis: "
+        + routeConfig.getCbOpenTimeoutMillis()
         + " ]";
   }
 }
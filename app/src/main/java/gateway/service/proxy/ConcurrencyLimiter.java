@@ -0,0 +1,189 @@
+package gateway.service.proxy;
+
+import gateway.service.dtos.RouteConfig;
+import gateway.service.utils.Constants;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// limits requests in flight to a route, the limit follows upstream latency (vegas): it grows
+// while latency stays near the lowest seen and shrinks once requests start queueing upstream
+public class ConcurrencyLimiter {
+  private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+  private static final Map<String, ConcurrencyLimiter> CONCURRENCY_LIMITERS =
+      new ConcurrentHashMap<>();
+
+  private final RouteConfig routeConfig;
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+  // limit is a double kept as its bits, so that it can move by less than one per sample
+  private final AtomicLong limitBits;
+  private final AtomicLong minRttNanos = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong minRttResetNanos = new AtomicLong(System.nanoTime());
+  // only present for clients with requests in flight, removed when their last one completes
+  private final Map<String, Integer> clientsInFlight = new ConcurrentHashMap<>();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder clientRejected = new LongAdder();
+
+  private ConcurrencyLimiter(final RouteConfig routeConfig) {
+    this.routeConfig = routeConfig;
+    this.limitBits = new AtomicLong(Double.doubleToLongBits(routeConfig.getClInitialLimit()));
+  }
+
+  public static ConcurrencyLimiter getConcurrencyLimiter(final RouteConfig routeConfig) {
+    final String apiName = routeConfig.getApiName();
+    final ConcurrencyLimiter concurrencyLimiter = CONCURRENCY_LIMITERS.get(apiName);
+    if (concurrencyLimiter != null
+        && concurrencyLimiter.routeConfig.isSameConcurrencyLimit(routeConfig)) {
+      return concurrencyLimiter;
+    }
+    // first call for the route, or its limits changed in a routes refresh
+    return CONCURRENCY_LIMITERS.compute(
+        apiName,
+        (key, existing) ->
+            existing != null && existing.routeConfig.isSameConcurrencyLimit(routeConfig)
+                ? existing
+                : new ConcurrencyLimiter(routeConfig));
+  }
+
+  public static Map<String, Object> getStats() {
+    final Map<String, Object> stats = new TreeMap<>();
+    CONCURRENCY_LIMITERS.forEach(
+        (apiName, concurrencyLimiter) -> stats.put(apiName, concurrencyLimiter.stats()));
+    return stats;
+  }
+
+  // every acquired permit has to be given back with exactly one release
+  public boolean tryAcquire(final String clientId) {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= (int) getLimit()) {
+        rejected.increment();
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+
+    if (routeConfig.getClClientMaxInFlight() > 0 && !tryAcquireClient(clientId)) {
+      inFlight.decrementAndGet();
+      clientRejected.increment();
+      return false;
+    }
+    return true;
+  }
+
+  // call answered, latency is time to response headers, dropped is an upstream error or timeout
+  public void release(final String clientId, final long rttNanos, final boolean isDropped) {
+    release(clientId);
+    updateLimit(rttNanos, isDropped);
+  }
+
+  // call ended without a latency sample, eg: client went away
+  public void release(final String clientId) {
+    inFlight.decrementAndGet();
+    if (routeConfig.getClClientMaxInFlight() > 0) {
+      clientsInFlight.computeIfPresent(
+          clientId, (key, clientInFlight) -> clientInFlight <= 1 ? null : clientInFlight - 1);
+    }
+  }
+
+  private boolean tryAcquireClient(final String clientId) {
+    final boolean[] isAcquired = {false};
+    clientsInFlight.compute(
+        clientId,
+        (key, clientInFlight) -> {
+          final int current = clientInFlight == null ? 0 : clientInFlight;
+          if (current >= routeConfig.getClClientMaxInFlight()) {
+            return clientInFlight;
+          }
+          isAcquired[0] = true;
+          return current + 1;
+        });
+    return isAcquired[0];
+  }
+
+  private double getLimit() {
+    return Double.longBitsToDouble(limitBits.get());
+  }
+
+  private void updateLimit(final long rttNanos, final boolean isDropped) {
+    final long minRtt = updateMinRtt(rttNanos);
+    while (true) {
+      final long currentBits = limitBits.get();
+      final double limit = Double.longBitsToDouble(currentBits);
+      double newLimit = limit;
+      if (isDropped) {
+        newLimit = limit * Constants.CL_DROP_DECREASE_FACTOR;
+      } else {
+        // estimated requests queued upstream beyond what it serves at its lowest latency
+        final double queued = limit * (1 - (double) minRtt / Math.max(rttNanos, 1));
+        // only grows while the limit is actually used, about one per round trip
+        if (queued <= Constants.CL_VEGAS_ALPHA && inFlight.get() * 2 >= limit) {
+          newLimit = limit + 1 / limit;
+        } else if (queued >= Constants.CL_VEGAS_BETA) {
+          newLimit = limit - 1;
+        }
+      }
+      newLimit =
+          Math.max(routeConfig.getClMinLimit(), Math.min(routeConfig.getClMaxLimit(), newLimit));
+      if (newLimit == limit
+          || limitBits.compareAndSet(currentBits, Double.doubleToLongBits(newLimit))) {
+        if ((int) newLimit != (int) limit) {
+          logger.debug(
+              "Concurrency Limit Changed: [{}] | [{}] -> [{}]",
+              routeConfig.getApiName(),
+              (int) limit,
+              (int) newLimit);
+        }
+        return;
+      }
+    }
+  }
+
+  // lowest latency is forgotten now and then, so that a backend that got slower for good (eg:
+  // moved region) is not taken as queueing forever
+  private long updateMinRtt(final long rttNanos) {
+    final long nowNanos = System.nanoTime();
+    final long resetNanos = minRttResetNanos.get();
+    if (nowNanos - resetNanos > TimeUnit.MILLISECONDS.toNanos(Constants.CL_MIN_RTT_RESET_MILLIS)
+        && minRttResetNanos.compareAndSet(resetNanos, nowNanos)) {
+      minRttNanos.set(rttNanos);
+      return rttNanos;
+    }
+    return minRttNanos.accumulateAndGet(rttNanos, Math::min);
+  }
+
+  private Map<String, Object> stats() {
+    final long minRtt = minRttNanos.get();
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("limit", (int) getLimit());
+    stats.put("inFlight", inFlight.get());
+    stats.put("minRttMillis", minRtt == Long.MAX_VALUE ? null : minRtt / 1_000_000.0);
+    stats.put("clientsInFlight", clientsInFlight.size());
+    stats.put("minLimit", routeConfig.getClMinLimit());
+    stats.put("maxLimit", routeConfig.getClMaxLimit());
+    stats.put("clientMaxInFlight", routeConfig.getClClientMaxInFlight());
+    stats.put("rejected", rejected.sum());
+    stats.put("clientRejected", clientRejected.sum());
+    return stats;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrencyLimiter: [ "
+        + "Api Name: "
+        + routeConfig.getApiName()
+        + ", Limit: "
+        + (int) getLimit()
+        + ", In Flight: "
+        + inFlight.get()
+        + " ]";
+  }
+}
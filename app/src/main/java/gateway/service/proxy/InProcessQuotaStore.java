@@ -0,0 +1,44 @@
+package gateway.service.proxy;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// quota store inside this process, for tests and single replica runs of the batching path,
+// other replicas do not see its buckets so it does not make limits cluster wide by itself
+public class InProcessQuotaStore implements QuotaStore {
+  private final Map<String, AtomicLong> theoreticalArrivals = new ConcurrentHashMap<>();
+
+  @Override
+  public CompletableFuture<Long> acquire(
+      final String key, final long requested, final int requestsPerSecond, final int burst) {
+    final long nowNanos = System.nanoTime();
+    final long emissionIntervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+    final long burstNanos = emissionIntervalNanos * burst;
+    final AtomicLong theoreticalArrivalNanos =
+        theoreticalArrivals.computeIfAbsent(key, bucketKey -> new AtomicLong(nowNanos));
+
+    // same gcra as the local buckets, granting as many of the requested tokens as fit
+    while (true) {
+      final long arrivalNanos = theoreticalArrivalNanos.get();
+      final long startNanos = arrivalNanos - nowNanos > 0 ? arrivalNanos : nowNanos;
+      final long granted =
+          Math.min(requested, (burstNanos - (startNanos - nowNanos)) / emissionIntervalNanos);
+      if (granted <= 0) {
+        return CompletableFuture.completedFuture(0L);
+      }
+      if (theoreticalArrivalNanos.compareAndSet(
+          arrivalNanos, startNanos + granted * emissionIntervalNanos)) {
+        return CompletableFuture.completedFuture(granted);
+      }
+    }
+  }
+
+  @Override
+  public void sweep() {
+    final long nowNanos = System.nanoTime();
+    theoreticalArrivals.values().removeIf(arrivalNanos -> arrivalNanos.get() - nowNanos <= 0);
+  }
+}
@@ -0,0 +1,171 @@
+package gateway.service.proxy;
+
+import gateway.service.utils.Constants;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// keeps downstream connections open between requests and serializes pipelined requests,
+// only one request per connection is passed down the pipeline until its response is written
+public class KeepAliveHandler extends ChannelDuplexHandler {
+  private static final Logger logger = LoggerFactory.getLogger(KeepAliveHandler.class);
+
+  private final int maxRequests;
+  // pipelined requests along with their content chunks, in the order received
+  private final Queue<HttpObject> pipelinedObjects = new ArrayDeque<>();
+  private int requestCount = 0;
+  private boolean isInFlight = false;
+  private boolean isReadingRequest = false;
+  private boolean isKeepAlive = false;
+  private boolean isReadPaused = false;
+
+  public KeepAliveHandler(final int maxRequests) {
+    this.maxRequests = maxRequests;
+  }
+
+  @Override
+  public void channelRead(
+      @NotNull final ChannelHandlerContext channelHandlerContext, @NotNull final Object object)
+      throws Exception {
+    if (object instanceof HttpRequest httpRequest) {
+      if (isInFlight || !pipelinedObjects.isEmpty()) {
+        // stop reading until the queued requests are answered, in order
+        pipelinedObjects.add(httpRequest);
+        if (!isReadPaused) {
+          isReadPaused = true;
+          ReadPause.pause(channelHandlerContext.channel());
+        }
+      } else {
+        dispatch(channelHandlerContext, httpRequest);
+      }
+      return;
+    }
+
+    if (object instanceof HttpContent httpContent) {
+      if (!pipelinedObjects.isEmpty()) {
+        pipelinedObjects.add(httpContent);
+      } else if (isReadingRequest) {
+        forwardContent(channelHandlerContext, httpContent);
+      } else {
+        // remainder of a request that was already answered, connection closes after it
+        httpContent.release();
+      }
+      return;
+    }
+    super.channelRead(channelHandlerContext, object);
+  }
+
+  @Override
+  public void write(
+      final ChannelHandlerContext channelHandlerContext,
+      final Object object,
+      final ChannelPromise channelPromise)
+      throws Exception {
+    if (object instanceof HttpResponse httpResponse) {
+      // answered before the request body was fully read, the rest of it can not be skipped
+      isKeepAlive = isKeepAlive && !isReadingRequest;
+      HttpUtil.setKeepAlive(httpResponse, isKeepAlive);
+    }
+
+    if (object instanceof LastHttpContent) {
+      if (isKeepAlive) {
+        super.write(channelHandlerContext, object, channelPromise);
+        onResponseComplete(channelHandlerContext);
+      } else {
+        final ChannelPromise closePromise = channelPromise.unvoid();
+        super.write(channelHandlerContext, object, closePromise);
+        closePromise.addListener(ChannelFutureListener.CLOSE);
+      }
+      return;
+    }
+    super.write(channelHandlerContext, object, channelPromise);
+  }
+
+  @Override
+  public void userEventTriggered(
+      final ChannelHandlerContext channelHandlerContext, final Object event) throws Exception {
+    // in flight requests are bound by upstream timeouts instead
+    if (event instanceof IdleStateEvent && !isInFlight) {
+      logger.debug("Closing Idle Connection: [{}]", channelHandlerContext.channel());
+      channelHandlerContext.close();
+      return;
+    }
+    super.userEventTriggered(channelHandlerContext, event);
+  }
+
+  @Override
+  public void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    releasePipelinedObjects();
+    super.channelInactive(channelHandlerContext);
+  }
+
+  @Override
+  public void handlerRemoved(final ChannelHandlerContext channelHandlerContext) {
+    releasePipelinedObjects();
+  }
+
+  private void dispatch(
+      final ChannelHandlerContext channelHandlerContext, final HttpRequest httpRequest) {
+    requestCount++;
+    isInFlight = true;
+    isReadingRequest = !(httpRequest instanceof LastHttpContent);
+    isKeepAlive = HttpUtil.isKeepAlive(httpRequest) && requestCount < maxRequests;
+    channelHandlerContext.fireChannelRead(httpRequest);
+  }
+
+  private void forwardContent(
+      final ChannelHandlerContext channelHandlerContext, final HttpContent httpContent) {
+    if (httpContent instanceof LastHttpContent) {
+      isReadingRequest = false;
+    }
+    channelHandlerContext.fireChannelRead(httpContent);
+  }
+
+  private void onResponseComplete(final ChannelHandlerContext channelHandlerContext) {
+    // request details are scoped to one request, not to the connection
+    channelHandlerContext.channel().attr(Constants.GATEWAY_REQUEST_DETAILS_KEY).set(null);
+    isInFlight = false;
+
+    channelHandlerContext
+        .executor()
+        .execute(
+            () -> {
+              if (isInFlight || !channelHandlerContext.channel().isActive()) {
+                return;
+              }
+              if (!pipelinedObjects.isEmpty()) {
+                dispatch(channelHandlerContext, (HttpRequest) pipelinedObjects.poll());
+                // forward queued content of this request, stop at the next pipelined request
+                while (pipelinedObjects.peek() instanceof HttpContent httpContent) {
+                  pipelinedObjects.poll();
+                  forwardContent(channelHandlerContext, httpContent);
+                }
+              }
+              if (pipelinedObjects.isEmpty() && isReadPaused) {
+                isReadPaused = false;
+                ReadPause.resume(channelHandlerContext.channel());
+              }
+            });
+  }
+
+  private void releasePipelinedObjects() {
+    HttpObject httpObject;
+    while ((httpObject = pipelinedObjects.poll()) != null) {
+      ReferenceCountUtil.release(httpObject);
+    }
+  }
+}
@@ -1,62 +1,183 @@
 package gateway.service.proxy;
 
-import gateway.service.utils.Common;
 import gateway.service.utils.Constants;
 import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelInitializer;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.IoHandlerFactory;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollIoHandler;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioIoHandler;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.codec.http.HttpServerCodec;
-import org.jetbrains.annotations.NotNull;
+import io.netty.channel.unix.UnixChannelOption;
+import io.netty.channel.uring.IoUring;
+import io.netty.channel.uring.IoUringIoHandler;
+import io.netty.channel.uring.IoUringServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class NettyServer {
   private static final Logger logger = LoggerFactory.getLogger(NettyServer.class);
 
+  private record Transport(
+      String name,
+      IoHandlerFactory ioHandlerFactory,
+      Class<? extends ServerChannel> serverChannelClass,
+      boolean isNative) {}
+
   public void start() throws Exception {
-    final EventLoopGroup bossGroup = new NioEventLoopGroup(Constants.BOSS_GROUP_THREADS);
-    final EventLoopGroup workerGroup = new NioEventLoopGroup(Constants.WORKER_GROUP_THREADS);
+    final Transport transport = getTransport();
+    final int availableProcessors = Runtime.getRuntime().availableProcessors();
+    // several acceptors share the port with so_reuseport, only native transports support it
+    final int acceptors =
+        transport.isNative()
+            ? Math.max(
+                1,
+                getIntProperty(
+                    Constants.ENV_SERVER_ACCEPTORS, Constants.ENV_SERVER_ACCEPTORS_DEFAULT))
+            : 1;
+    final int workerThreads =
+        Math.max(
+            1,
+            getIntProperty(
+                Constants.ENV_SERVER_WORKER_THREADS, String.valueOf(availableProcessors)));
+
+    final boolean isHttp2 =
+        Boolean.parseBoolean(
+            CommonUtilities.getSystemEnvProperty(
+                Constants.ENV_SERVER_HTTP2, Constants.ENV_SERVER_HTTP2_DEFAULT));
+    final int http2MaxConcurrentStreams =
+        getIntProperty(
+            Constants.ENV_SERVER_HTTP2_MAX_STREAMS, Constants.ENV_SERVER_HTTP2_MAX_STREAMS_DEFAULT);
+
+    // tls is ready before the port opens, the handshake offers h2 when it is on
+    ServerTls.init(isHttp2);
+
+    final EventLoopGroup bossGroup =
+        new MultiThreadIoEventLoopGroup(acceptors, transport.ioHandlerFactory());
+    final EventLoopGroup workerGroup =
+        new MultiThreadIoEventLoopGroup(workerThreads, transport.ioHandlerFactory());
+
+    final int keepAliveMaxRequests =
+        Integer.parseInt(
+            CommonUtilities.getSystemEnvProperty(
+                Constants.ENV_KEEP_ALIVE_MAX_REQUESTS,
+                Constants.ENV_KEEP_ALIVE_MAX_REQUESTS_DEFAULT));
+    final int keepAliveIdleSeconds =
+        Integer.parseInt(
+            CommonUtilities.getSystemEnvProperty(
+                Constants.ENV_KEEP_ALIVE_IDLE_SECONDS,
+                Constants.ENV_KEEP_ALIVE_IDLE_SECONDS_DEFAULT));
 
     try {
       final ServerBootstrap serverBootstrap = new ServerBootstrap();
       serverBootstrap
           .group(bossGroup, workerGroup)
-          .channel(NioServerSocketChannel.class)
-          .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Constants.CONNECT_TIMEOUT_MILLIS)
+          .channel(transport.serverChannelClass())
+          .option(
+              ChannelOption.SO_BACKLOG,
+              getIntProperty(
+                  Constants.ENV_SERVER_SO_BACKLOG, Constants.ENV_SERVER_SO_BACKLOG_DEFAULT))
+          .childOption(
+              ChannelOption.TCP_NODELAY,
+              Boolean.parseBoolean(
+                  CommonUtilities.getSystemEnvProperty(
+                      Constants.ENV_SERVER_TCP_NODELAY, Constants.ENV_SERVER_TCP_NODELAY_DEFAULT)))
+          // proxied response bodies stop reading upstream while a client is not writable
+          .childOption(
+              ChannelOption.WRITE_BUFFER_WATER_MARK,
+              new WriteBufferWaterMark(
+                  getIntProperty(
+                      Constants.ENV_SERVER_WRITE_LOW_WATER_MARK,
+                      Constants.ENV_SERVER_WRITE_LOW_WATER_MARK_DEFAULT),
+                  getIntProperty(
+                      Constants.ENV_SERVER_WRITE_HIGH_WATER_MARK,
+                      Constants.ENV_SERVER_WRITE_HIGH_WATER_MARK_DEFAULT)))
+          .childOption(ChannelOption.ALLOCATOR, getAllocator(workerThreads))
           .childHandler(
-              new ChannelInitializer<SocketChannel>() {
-                @Override
-                protected void initChannel(@NotNull final SocketChannel socketChannel)
-                    throws Exception {
-                  socketChannel
-                      .pipeline()
-                      .addLast(new HttpServerCodec())
-                      .addLast(new HttpObjectAggregator(Constants.MAX_CONTENT_LENGTH))
-                      .addLast(Common.newCorsHandler())
-                      .addLast(new ServerLogging())
-                      .addLast(new SecurityConfig())
-                      .addLast(new ProxyHandler());
-                }
-              });
+              new ServerInitializer(
+                  keepAliveMaxRequests, keepAliveIdleSeconds, isHttp2, http2MaxConcurrentStreams));
+      if (acceptors > 1) {
+        serverBootstrap.option(UnixChannelOption.SO_REUSEPORT, true);
+      }
 
       final int serverPort =
           Integer.parseInt(
               CommonUtilities.getSystemEnvProperty(Constants.ENV_PORT, Constants.ENV_PORT_DEFAULT));
-      final ChannelFuture channelFuture = serverBootstrap.bind(serverPort).sync();
+      final List<Channel> serverChannels = new ArrayList<>();
+      for (int i = 0; i < acceptors; i++) {
+        serverChannels.add(serverBootstrap.bind(serverPort).sync().channel());
+      }
 
-      logger.info("Gateway Server Started on Port [{}]...", serverPort);
-      channelFuture.channel().closeFuture().sync();
+      logger.info(
+          "Gateway Server Started on Port [{}] | Transport [{}] | Acceptors [{}] | Workers [{}] |"
+              + " Http2 [{}] | Tls [{}]...",
+          serverPort,
+          transport.name(),
+          acceptors,
+          workerThreads,
+          isHttp2,
+          ServerTls.isEnabled());
+      for (final Channel serverChannel : serverChannels) {
+        serverChannel.closeFuture().sync();
+      }
     } finally {
       workerGroup.shutdownGracefully();
       bossGroup.shutdownGracefully();
       logger.info("Gateway Server Stopped...");
     }
   }
+
+  // native transports when the platform has them, nio everywhere else
+  private Transport getTransport() {
+    final String transportName =
+        CommonUtilities.getSystemEnvProperty(
+            Constants.ENV_SERVER_TRANSPORT, Constants.ENV_SERVER_TRANSPORT_DEFAULT);
+    final boolean isAuto = "auto".equals(transportName);
+
+    if ((isAuto || "io_uring".equals(transportName)) && IoUring.isAvailable()) {
+      return new Transport(
+          "io_uring", IoUringIoHandler.newFactory(), IoUringServerSocketChannel.class, true);
+    }
+    if ((isAuto || "epoll".equals(transportName)) && Epoll.isAvailable()) {
+      return new Transport(
+          "epoll", EpollIoHandler.newFactory(), EpollServerSocketChannel.class, true);
+    }
+    if (!isAuto && !"nio".equals(transportName)) {
+      logger.warn("Server Transport Not Available, Using Nio: [{}]", transportName);
+    }
+    return new Transport("nio", NioIoHandler.newFactory(), NioServerSocketChannel.class, false);
+  }
+
+  // one arena per worker thread, so that event loops do not contend for the same arena, and no
+  // thread caches for the many short lived virtual threads that stream proxy bodies
+  private ByteBufAllocator getAllocator(final int workerThreads) {
+    final int arenas =
+        Math.max(
+            1,
+            getIntProperty(Constants.ENV_SERVER_ALLOCATOR_ARENAS, String.valueOf(workerThreads)));
+    return new PooledByteBufAllocator(
+        true,
+        arenas,
+        arenas,
+        PooledByteBufAllocator.defaultPageSize(),
+        PooledByteBufAllocator.defaultMaxOrder(),
+        PooledByteBufAllocator.defaultSmallCacheSize(),
+        PooledByteBufAllocator.defaultNormalCacheSize(),
+        false);
+  }
+
+  private int getIntProperty(final String name, final String defaultValue) {
+    return Integer.parseInt(CommonUtilities.getSystemEnvProperty(name, defaultValue));
+  }
 }
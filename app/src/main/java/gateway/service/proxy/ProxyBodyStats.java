@@ -0,0 +1,34 @@
+package gateway.service.proxy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// body bytes proxied per request in each direction, counted where they are written, so this is
+// the traffic through the gateway and not a count of the copies made along the way
+public class ProxyBodyStats {
+  private static final LongAdder REQUESTS = new LongAdder();
+  private static final LongAdder REQUEST_BODY_BYTES = new LongAdder();
+  private static final LongAdder RESPONSE_BODY_BYTES = new LongAdder();
+
+  public static void record(final long requestBodyBytes, final long responseBodyBytes) {
+    REQUESTS.increment();
+    REQUEST_BODY_BYTES.add(requestBodyBytes);
+    RESPONSE_BODY_BYTES.add(responseBodyBytes);
+  }
+
+  public static Map<String, Object> getStats() {
+    final long requests = REQUESTS.sum();
+    final long requestBodyBytes = REQUEST_BODY_BYTES.sum();
+    final long responseBodyBytes = RESPONSE_BODY_BYTES.sum();
+
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("requests", requests);
+    stats.put("requestBodyBytes", requestBodyBytes);
+    stats.put("responseBodyBytes", responseBodyBytes);
+    stats.put(
+        "bodyBytesPerRequest",
+        requests == 0 ? 0 : (requestBodyBytes + responseBodyBytes) / requests);
+    return stats;
+  }
+}
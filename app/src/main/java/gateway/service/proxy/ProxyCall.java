@@ -0,0 +1,302 @@
+package gateway.service.proxy;
+
+import gateway.service.dtos.RouteConfig;
+import gateway.service.utils.Constants;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// one proxied request, made of one or more upstream attempts: retries of idempotent requests
+// after an upstream error and, for get routes, a hedged copy when the first attempt is slower
+// than most, the callback gets exactly one result, the first usable one
+public class ProxyCall {
+  private static final Logger logger = LoggerFactory.getLogger(ProxyCall.class);
+
+  private static final List<String> IDEMPOTENT_METHODS =
+      List.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE");
+  private static final List<String> HEDGED_METHODS = List.of("GET", "HEAD");
+  private static final List<Integer> RETRY_STATUS_CODES = List.of(502, 503, 504);
+
+  private final OkHttpClient okHttpClient;
+  private final RouteConfig routeConfig;
+  private final RouteStats routeStats;
+  private final ScheduledExecutorService scheduler;
+  private final UpstreamGroup upstreamGroup;
+  private final String requestUri;
+  private final Request request;
+  private final ResultCallback callback;
+  private final Queue<Call> calls = new ConcurrentLinkedQueue<>();
+  private final Set<UpstreamGroup.Endpoint> triedEndpoints = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean isDone = new AtomicBoolean();
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private final AtomicInteger retries = new AtomicInteger();
+  private volatile boolean isCanceled = false;
+
+  ProxyCall(
+      final OkHttpClient okHttpClient,
+      final RouteConfig routeConfig,
+      final RouteStats routeStats,
+      final ScheduledExecutorService scheduler,
+      final UpstreamGroup upstreamGroup,
+      final String requestUri,
+      final Request request,
+      final ResultCallback callback) {
+    this.okHttpClient = okHttpClient;
+    this.routeConfig = routeConfig;
+    this.routeStats = routeStats;
+    this.scheduler = scheduler;
+    this.upstreamGroup = upstreamGroup;
+    this.requestUri = requestUri;
+    this.request = request;
+    this.callback = callback;
+  }
+
+  void start() {
+    routeStats.depositRetryBudget();
+    attempt();
+
+    final long hedgeDelayMillis = routeStats.getHedgeDelayMillis();
+    if (hedgeDelayMillis > 0 && isReplayable() && HEDGED_METHODS.contains(request.method())) {
+      scheduler.schedule(this::hedge, hedgeDelayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public void cancel() {
+    isCanceled = true;
+    calls.forEach(Call::cancel);
+  }
+
+  private void attempt() {
+    if (isDone.get()) {
+      return;
+    }
+    if (isCanceled) {
+      // canceled while a retry was waiting, the callback still gets its one result
+      final Call canceledCall = calls.peek();
+      if (outstanding.get() == 0 && canceledCall != null && complete(canceledCall)) {
+        callback.onFailure(canceledCall, new IOException("Canceled"), 0);
+      }
+      return;
+    }
+    // every attempt picks its endpoint, so a retry or hedge goes to another one when it can
+    final UpstreamGroup.Endpoint endpoint = upstreamGroup.choose(triedEndpoints);
+    triedEndpoints.add(endpoint);
+    endpoint.onAttempt();
+    final Call call =
+        okHttpClient.newCall(request.newBuilder().url(endpoint.getBaseUrl() + requestUri).build());
+    calls.add(call);
+    outstanding.incrementAndGet();
+    call.enqueue(attemptCallback(endpoint, System.nanoTime()));
+    if (isCanceled) {
+      call.cancel();
+    }
+  }
+
+  private void hedge() {
+    if (isDone.get() || isCanceled || !routeStats.withdrawRetryBudget()) {
+      return;
+    }
+    routeStats.hedges.incrementAndGet();
+    logger.debug("Hedging Upstream Request: [{}] | [{}]", routeConfig.getApiName(), request.url());
+    attempt();
+  }
+
+  // streamed bodies can only be sent once, the empty body of a bodiless put can be resent
+  private boolean isReplayable() {
+    return request.body() == null || !request.body().isOneShot();
+  }
+
+  private boolean tryRetry() {
+    if (isDone.get()
+        || isCanceled
+        || !isReplayable()
+        || !IDEMPOTENT_METHODS.contains(request.method())
+        || retries.get() >= routeConfig.getMaxRetries()) {
+      return false;
+    }
+    // retries are paid from a budget refilled by requests, so an outage is not multiplied
+    if (!routeStats.withdrawRetryBudget()) {
+      routeStats.retriesDenied.incrementAndGet();
+      return false;
+    }
+    final int retry = retries.incrementAndGet();
+    routeStats.retries.incrementAndGet();
+    final long backoffMillis =
+        Constants.PROXY_RETRY_BACKOFF_MILLIS * (1L << Math.min(retry - 1, 4));
+    scheduler.schedule(
+        this::attempt,
+        ThreadLocalRandom.current().nextLong(backoffMillis / 2, backoffMillis + 1),
+        TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  private boolean complete(final Call call) {
+    if (!isDone.compareAndSet(false, true)) {
+      return false;
+    }
+    // the losing attempts are not needed anymore
+    calls.stream().filter(otherCall -> otherCall != call).forEach(Call::cancel);
+    return true;
+  }
+
+  private Callback attemptCallback(
+      final UpstreamGroup.Endpoint endpoint, final long attemptStartNanos) {
+    return new Callback() {
+      @Override
+      public void onResponse(@NotNull final Call call, @NotNull final Response response)
+          throws IOException {
+        // the latency of this attempt alone, not of the backoffs and hedge waits before it
+        final long attemptNanos = System.nanoTime() - attemptStartNanos;
+        upstreamGroup.onResult(endpoint, response.code() >= 500);
+        if (response.code() < 500) {
+          routeStats.recordLatency(attemptNanos);
+        }
+        final boolean isLastOutstanding = outstanding.decrementAndGet() == 0;
+        if (isDone.get()) {
+          response.close();
+          return;
+        }
+        if (RETRY_STATUS_CODES.contains(response.code()) && (!isLastOutstanding || tryRetry())) {
+          // another attempt is in flight or was just scheduled
+          response.close();
+          return;
+        }
+        if (!complete(call)) {
+          response.close();
+          return;
+        }
+        callback.onResponse(call, response, attemptNanos);
+      }
+
+      @Override
+      public void onFailure(@NotNull final Call call, @NotNull final IOException ex) {
+        final long attemptNanos = System.nanoTime() - attemptStartNanos;
+        if (call.isCanceled()) {
+          upstreamGroup.onIgnored(endpoint);
+        } else {
+          upstreamGroup.onResult(endpoint, true);
+        }
+        final boolean isLastOutstanding = outstanding.decrementAndGet() == 0;
+        if (isDone.get() || (!isCanceled && (!isLastOutstanding || tryRetry()))) {
+          return;
+        }
+        if (complete(call)) {
+          callback.onFailure(call, ex, attemptNanos);
+        }
+      }
+    };
+  }
+
+  // the one result of the call with the latency of the attempt that produced it, so that limits
+  // and breakers see upstream latency and not the retry backoffs and hedge waits before it
+  public interface ResultCallback {
+    void onResponse(@NotNull Call call, @NotNull Response response, long attemptNanos)
+        throws IOException;
+
+    void onFailure(@NotNull Call call, @NotNull IOException ex, long attemptNanos);
+  }
+
+  // per route retry budget and recent latencies, kept with the route client
+  static final class RouteStats {
+    private final int hedgePercentile;
+    private final AtomicLong retryCredits =
+        new AtomicLong(Constants.PROXY_RETRY_BUDGET_MAX * Constants.PROXY_RETRY_CREDITS_PER_RETRY);
+    private final AtomicLongArray latencies = new AtomicLongArray(Constants.PROXY_LATENCY_SAMPLES);
+    private final AtomicLong latencyCursor = new AtomicLong();
+    // latency at the hedge percentile, 0 until there are enough samples
+    private final AtomicLong hedgeDelayMillis = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong retriesDenied = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+
+    RouteStats(final int hedgePercentile) {
+      this.hedgePercentile = hedgePercentile;
+    }
+
+    long getRetries() {
+      return retries.get();
+    }
+
+    long getRetriesDenied() {
+      return retriesDenied.get();
+    }
+
+    long getHedges() {
+      return hedges.get();
+    }
+
+    // 0 when hedging is off for the route or there are not enough samples yet
+    long getHedgeDelayMillis() {
+      if (hedgePercentile <= 0 || hedgeDelayMillis.get() == 0) {
+        return 0;
+      }
+      return Math.max(Constants.PROXY_HEDGE_MIN_DELAY_MILLIS, hedgeDelayMillis.get());
+    }
+
+    // every request adds a fraction of a retry, up to a cap, ie: retries <= n% of requests
+    private void depositRetryBudget() {
+      retryCredits.getAndUpdate(
+          credits ->
+              Math.min(
+                  Constants.PROXY_RETRY_BUDGET_MAX * Constants.PROXY_RETRY_CREDITS_PER_RETRY,
+                  credits
+                      + Constants.PROXY_RETRY_CREDITS_PER_RETRY
+                          * Constants.PROXY_RETRY_BUDGET_PERCENT
+                          / 100));
+    }
+
+    private boolean withdrawRetryBudget() {
+      long credits;
+      do {
+        credits = retryCredits.get();
+        if (credits < Constants.PROXY_RETRY_CREDITS_PER_RETRY) {
+          return false;
+        }
+      } while (!retryCredits.compareAndSet(
+          credits, credits - Constants.PROXY_RETRY_CREDITS_PER_RETRY));
+      return true;
+    }
+
+    private void recordLatency(final long latencyNanos) {
+      if (hedgePercentile <= 0) {
+        return;
+      }
+      final long sample = latencyCursor.getAndIncrement();
+      latencies.set((int) (sample % latencies.length()), latencyNanos);
+      // the percentile is recomputed every so many samples, not on every request
+      if (sample % Constants.PROXY_LATENCY_RECOMPUTE_EVERY == 0
+          && sample >= Constants.PROXY_LATENCY_MIN_SAMPLES) {
+        final int samples = (int) Math.min(sample + 1, latencies.length());
+        final long[] sortedLatencies = new long[samples];
+        for (int i = 0; i < samples; i++) {
+          sortedLatencies[i] = latencies.get(i);
+        }
+        Arrays.sort(sortedLatencies);
+        hedgeDelayMillis.set(
+            Math.max(
+                1,
+                TimeUnit.NANOSECONDS.toMillis(
+                    sortedLatencies[(samples - 1) * hedgePercentile / 100])));
+      }
+    }
+  }
+}
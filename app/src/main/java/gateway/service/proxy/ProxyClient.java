@@ -1,28 +1,224 @@
 package gateway.service.proxy;
 
+import gateway.service.dtos.RouteConfig;
+import gateway.service.utils.Constants;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Call;
+import okhttp3.Connection;
 import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
-import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+// one upstream client layer for the whole gateway, every route gets its own connection pool and
+// dispatcher derived from the same base client so that interceptors and executor threads are shared
 public class ProxyClient {
-  private final OkHttpClient proxyClient;
-
-  public ProxyClient() {
-    proxyClient =
-        new OkHttpClient.Builder()
-            .connectTimeout(5, TimeUnit.SECONDS)
-            .readTimeout(15, TimeUnit.SECONDS)
-            .writeTimeout(15, TimeUnit.SECONDS)
-            .connectionPool(new ConnectionPool(10, 5, TimeUnit.MINUTES))
-            .addInterceptor(new ProxyInterceptor())
-            .followRedirects(false)
-            .followSslRedirects(false)
+  private static final Logger logger = LoggerFactory.getLogger(ProxyClient.class);
+
+  // virtual threads, so that thousands of in-flight calls do not need as many platform threads
+  private static final ExecutorService PROXY_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+  private static final OkHttpClient BASE_CLIENT =
+      new OkHttpClient.Builder()
+          .addInterceptor(new ProxyInterceptor())
+          .followRedirects(false)
+          .followSslRedirects(false)
+          .build();
+
+  // delayed retries and hedges, the upstream calls themselves still run on the dispatcher
+  private static final ScheduledExecutorService PROXY_SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "proxy-scheduler");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private static final Map<String, RouteClient> ROUTE_CLIENTS = new ConcurrentHashMap<>();
+  private static final Map<String, PoolStats> POOL_STATS = new ConcurrentHashMap<>();
+
+  // upstream calls never run on netty event loop, callback is invoked when backend answers
+  // request uri is appended to the base url of the endpoint chosen for each attempt
+  public static ProxyCall proxy(
+      final RouteConfig routeConfig,
+      final UpstreamGroup upstreamGroup,
+      final String requestUri,
+      final Request request,
+      final ProxyCall.ResultCallback callback) {
+    final RouteClient routeClient = getRouteClient(routeConfig);
+    final ProxyCall proxyCall =
+        new ProxyCall(
+            routeClient.okHttpClient(),
+            routeConfig,
+            routeClient.routeStats(),
+            PROXY_SCHEDULER,
+            upstreamGroup,
+            requestUri,
+            request,
+            callback);
+    proxyCall.start();
+    return proxyCall;
+  }
+
+  // clients of routes gone in a routes refresh give back their idle connections and are dropped,
+  // calls still in flight finish on the client they started with
+  public static void retainRoutes(final Set<String> apiNames) {
+    ROUTE_CLIENTS
+        .entrySet()
+        .removeIf(
+            entry -> {
+              if (apiNames.contains(entry.getKey())) {
+                return false;
+              }
+              logger.info("Removing Upstream Client: [{}]", entry.getKey());
+              entry.getValue().okHttpClient().connectionPool().evictAll();
+              POOL_STATS.remove(entry.getKey());
+              return true;
+            });
+  }
+
+  public static Map<String, Object> getPoolStats() {
+    final Map<String, Object> poolStats = new TreeMap<>();
+    ROUTE_CLIENTS.forEach(
+        (apiName, routeClient) -> {
+          final ConnectionPool connectionPool = routeClient.okHttpClient().connectionPool();
+          final PoolStats stats = POOL_STATS.get(apiName);
+          if (stats == null) {
+            // route removed while stats were collected
+            return;
+          }
+          final long hits = stats.hits.get();
+          final long misses = stats.misses.get();
+
+          final Map<String, Object> routeStats = new LinkedHashMap<>();
+          routeStats.put("hits", hits);
+          routeStats.put("misses", misses);
+          routeStats.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+          routeStats.put("connections", connectionPool.connectionCount());
+          routeStats.put("idleConnections", connectionPool.idleConnectionCount());
+          routeStats.put("maxIdle", routeClient.routeConfig().getPoolMaxIdle());
+          routeStats.put("keepAliveMinutes", routeClient.routeConfig().getPoolKeepAliveMinutes());
+          routeStats.put("maxRequests", routeClient.okHttpClient().dispatcher().getMaxRequests());
+          routeStats.put(
+              "maxRequestsPerHost",
+              routeClient.okHttpClient().dispatcher().getMaxRequestsPerHost());
+          routeStats.put("protocols", routeClient.okHttpClient().protocols().toString());
+          routeStats.put("retries", routeClient.routeStats().getRetries());
+          routeStats.put("retriesDenied", routeClient.routeStats().getRetriesDenied());
+          routeStats.put("hedges", routeClient.routeStats().getHedges());
+          routeStats.put("hedgeDelayMillis", routeClient.routeStats().getHedgeDelayMillis());
+          poolStats.put(apiName, routeStats);
+        });
+    return poolStats;
+  }
+
+  private static RouteClient getRouteClient(final RouteConfig routeConfig) {
+    final String apiName = routeConfig.getApiName();
+    final RouteClient routeClient = ROUTE_CLIENTS.get(apiName);
+    if (routeClient != null && routeClient.routeConfig().isSameClient(routeConfig)) {
+      return routeClient;
+    }
+    // first call for the route, or its client settings changed in a routes refresh
+    return ROUTE_CLIENTS.compute(
+        apiName,
+        (key, existing) -> {
+          if (existing != null && existing.routeConfig().isSameClient(routeConfig)) {
+            return existing;
+          }
+          if (existing != null) {
+            existing.okHttpClient().connectionPool().evictAll();
+          }
+          logger.info("Creating Upstream Client: [{}]", routeConfig);
+          return newRouteClient(routeConfig);
+        });
+  }
+
+  private static RouteClient newRouteClient(final RouteConfig routeConfig) {
+    // both caps are per route, calls over them wait in this route's queue and not in others'
+    final Dispatcher dispatcher = new Dispatcher(PROXY_EXECUTOR);
+    dispatcher.setMaxRequests(Constants.PROXY_MAX_REQUESTS_PER_ROUTE);
+    dispatcher.setMaxRequestsPerHost(routeConfig.getMaxRequestsPerHost());
+
+    final PoolStats poolStats =
+        POOL_STATS.computeIfAbsent(routeConfig.getApiName(), key -> new PoolStats());
+    final OkHttpClient okHttpClient =
+        BASE_CLIENT
+            .newBuilder()
+            .dispatcher(dispatcher)
+            .connectionPool(
+                new ConnectionPool(
+                    routeConfig.getPoolMaxIdle(),
+                    routeConfig.getPoolKeepAliveMinutes(),
+                    TimeUnit.MINUTES))
+            .connectTimeout(routeConfig.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
+            .readTimeout(routeConfig.getReadTimeoutMillis(), TimeUnit.MILLISECONDS)
+            .writeTimeout(routeConfig.getWriteTimeoutMillis(), TimeUnit.MILLISECONDS)
+            .eventListenerFactory(call -> new PoolStatsListener(poolStats))
+            .protocols(getProtocols(routeConfig))
             .build();
+    return new RouteClient(
+        routeConfig, okHttpClient, new ProxyCall.RouteStats(routeConfig.getHedgePercentile()));
   }
 
-  public Response proxy(Request request) throws Exception {
-    return proxyClient.newCall(request).execute();
+  // http/2 multiplexes the requests of a route over a few connections, without tls it has to be
+  // known in advance that the backend speaks it
+  private static List<Protocol> getProtocols(final RouteConfig routeConfig) {
+    return switch (routeConfig.getUpstreamProtocol()) {
+      case Constants.UPSTREAM_PROTOCOL_H2C -> List.of(Protocol.H2_PRIOR_KNOWLEDGE);
+      case Constants.UPSTREAM_PROTOCOL_HTTP1 -> List.of(Protocol.HTTP_1_1);
+      default -> List.of(Protocol.HTTP_2, Protocol.HTTP_1_1);
+    };
+  }
+
+  private record RouteClient(
+      RouteConfig routeConfig, OkHttpClient okHttpClient, ProxyCall.RouteStats routeStats) {}
+
+  private static final class PoolStats {
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+  }
+
+  // a connection acquired without connecting first is a reused (pooled) connection
+  private static final class PoolStatsListener extends EventListener {
+    private final PoolStats poolStats;
+    private boolean isNewConnection = false;
+
+    private PoolStatsListener(final PoolStats poolStats) {
+      this.poolStats = poolStats;
+    }
+
+    @Override
+    public void connectStart(
+        @NotNull final Call call,
+        @NotNull final InetSocketAddress inetSocketAddress,
+        @NotNull final Proxy proxy) {
+      isNewConnection = true;
+    }
+
+    @Override
+    public void connectionAcquired(@NotNull final Call call, @NotNull final Connection connection) {
+      if (isNewConnection) {
+        poolStats.misses.incrementAndGet();
+      } else {
+        poolStats.hits.incrementAndGet();
+      }
+      isNewConnection = false;
+    }
   }
 }
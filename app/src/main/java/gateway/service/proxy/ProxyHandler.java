@@ -1,138 +1,101 @@
 package gateway.service.proxy;
 
 import gateway.service.dtos.GatewayRequestDetails;
+import gateway.service.dtos.RouteConfig;
 import gateway.service.utils.Common;
 import gateway.service.utils.Constants;
 import gateway.service.utils.Gateway;
-import gateway.service.utils.Routes;
-import io.netty.buffer.ByteBufUtil;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.ChannelFutureListener;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import io.netty.handler.codec.http.DefaultFullHttpResponse;
-import io.netty.handler.codec.http.FullHttpRequest;
-import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import okhttp3.Call;
 import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ProxyHandler extends ChannelInboundHandlerAdapter {
   private static final Logger logger = LoggerFactory.getLogger(ProxyHandler.class);
-  private final ProxyClient proxy;
+  private static final List<HttpMethod> BODY_REQUIRED_METHODS =
+      List.of(HttpMethod.POST, HttpMethod.PUT, HttpMethod.PATCH);
 
-  private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
-  private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
-
-  public ProxyHandler() {
-    this.proxy = new ProxyClient();
-  }
+  // state of the one request in flight on this connection, see KeepAliveHandler
+  private final Object writabilityMonitor = new Object();
+  private StreamingRequestBody requestBody;
+  private ProxyCall proxyCall;
 
   @Override
   public void channelRead(@NotNull final ChannelHandlerContext ctx, @NotNull final Object msg)
       throws Exception {
-    if (msg instanceof FullHttpRequest fullHttpRequest) {
-      final GatewayRequestDetails gatewayRequestDetails =
-          ctx.channel().attr(Constants.GATEWAY_REQUEST_DETAILS_KEY).get();
-
-      if (gatewayRequestDetails == null) {
-        Gateway.sendErrorResponse(
-            ctx, HttpResponseStatus.BAD_REQUEST, "Gateway Request Details Error...");
-        return;
-      }
-
-      final boolean isGatewaySvcResponse =
-          Gateway.gatewaySvcResponse(gatewayRequestDetails, ctx, fullHttpRequest);
-      if (isGatewaySvcResponse) {
-        return;
-      }
-
-      final CircuitBreaker circuitBreaker =
-          circuitBreakers.computeIfAbsent(
-              gatewayRequestDetails.getApiName(),
-              key -> new CircuitBreaker(Constants.CB_FAILURE_THRESHOLD, Constants.CB_OPEN_TIMEOUT));
-      if (!circuitBreaker.allowRequest()) {
-        logger.error(
-            "[{}] CircuitBreaker Response: [{}]",
-            gatewayRequestDetails.getRequestId(),
-            circuitBreaker);
-        Gateway.sendErrorResponse(
-            ctx, HttpResponseStatus.SERVICE_UNAVAILABLE, "Maximum Failures Allowed Exceeded...");
-        return;
-      }
-
-      RateLimiter rateLimiter =
-          rateLimiters.computeIfAbsent(
-              gatewayRequestDetails.getClientId(),
-              key -> new RateLimiter(Constants.RL_MAX_REQUESTS, Constants.RL_TIME_WINDOW_MILLIS));
-      if (!rateLimiter.allowRequest()) {
-        logger.error(
-            "[{}] RateLimiter Response: [{}]", gatewayRequestDetails.getRequestId(), rateLimiter);
-        Gateway.sendErrorResponse(
-            ctx, HttpResponseStatus.TOO_MANY_REQUESTS, "Maximum Request Allowed Exceeded...");
-        return;
-      }
-
-      try (Response response =
-          proxy.proxy(getProxyRequest(gatewayRequestDetails, fullHttpRequest))) {
-        logger.info("{}", response.code());
-        if (response.code() > 199 && response.code() < 300) {
-          circuitBreaker.markSuccess();
-        } else {
-          circuitBreaker.markFailure();
-        }
-
-        HttpResponseStatus status = HttpResponseStatus.valueOf(response.code());
-        FullHttpResponse fullHttpResponse =
-            new DefaultFullHttpResponse(
-                HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer(response.body().bytes()));
-
-        for (Map.Entry<String, List<String>> header : response.headers().toMultimap().entrySet()) {
-          for (String value : header.getValue()) {
-            fullHttpResponse.headers().add(header.getKey(), value);
-          }
-        }
+    if (msg instanceof HttpRequest httpRequest) {
+      requestBody = null;
+      proxyRequest(ctx, httpRequest);
+    }
 
-        if (List.of(
-                    HttpStatusClass.SUCCESS,
-                    HttpStatusClass.CLIENT_ERROR,
-                    HttpStatusClass.SERVER_ERROR)
-                .contains(status.codeClass())
-            && fullHttpResponse.headers().get(HttpHeaderNames.CONTENT_TYPE) == null) {
-          fullHttpResponse
-              .headers()
-              .set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+    if (msg instanceof HttpContent httpContent) {
+      // body chunks stream to upstream as they arrive, or are dropped if request was answered
+      if (requestBody == null) {
+        httpContent.release();
+      } else {
+        requestBody.offer(httpContent.content());
+        if (httpContent instanceof LastHttpContent) {
+          requestBody.complete();
+          requestBody = null;
         }
-
-        ctx.writeAndFlush(fullHttpResponse).addListener(ChannelFutureListener.CLOSE);
-      } catch (Exception ex) {
-        circuitBreaker.markFailure();
-        logger.error("[{}] Proxy Handler Error...", gatewayRequestDetails.getRequestId(), ex);
-        final String errMsg =
-            "["
-                + gatewayRequestDetails.getRequestId()
-                + "] Proxy Handler Error. Cause="
-                + ex.getMessage();
-        Gateway.sendErrorResponse(ctx, HttpResponseStatus.BAD_GATEWAY, errMsg);
       }
-    } else {
+    } else if (!(msg instanceof HttpRequest)) {
       super.channelRead(ctx, msg);
     }
   }
 
+  @Override
+  public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
+    synchronized (writabilityMonitor) {
+      writabilityMonitor.notifyAll();
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
+  @Override
+  public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+    if (requestBody != null) {
+      requestBody.abort();
+      requestBody = null;
+    }
+    if (proxyCall != null) {
+      proxyCall.cancel();
+      proxyCall = null;
+    }
+    synchronized (writabilityMonitor) {
+      writabilityMonitor.notifyAll();
+    }
+    super.channelInactive(ctx);
+  }
+
   @Override
   public void exceptionCaught(
       final ChannelHandlerContext channelHandlerContext, final Throwable throwable) {
@@ -151,20 +114,429 @@ public class ProxyHandler extends ChannelInboundHandlerAdapter {
         channelHandlerContext, HttpResponseStatus.INTERNAL_SERVER_ERROR, errMsg);
   }
 
+  private void proxyRequest(final ChannelHandlerContext ctx, final HttpRequest httpRequest) {
+    final GatewayRequestDetails gatewayRequestDetails =
+        ctx.channel().attr(Constants.GATEWAY_REQUEST_DETAILS_KEY).get();
+
+    if (gatewayRequestDetails == null) {
+      Gateway.sendErrorResponse(
+          ctx, HttpResponseStatus.BAD_REQUEST, "Gateway Request Details Error...");
+      return;
+    }
+
+    final boolean isGatewaySvcResponse =
+        Gateway.gatewaySvcResponse(gatewayRequestDetails, ctx, httpRequest);
+    if (isGatewaySvcResponse) {
+      return;
+    }
+
+    final RouteConfig routeConfig =
+        gatewayRequestDetails.getRouteSnapshot().getRouteConfig(gatewayRequestDetails.getApiName());
+    // rate limit first, a rejected request must not take one of the half open probe permits
+    if (!RateLimiter.tryAcquire(routeConfig, gatewayRequestDetails.getClientId())) {
+      logger.error(
+          "[{}] RateLimiter Response: [{}] | [{}]",
+          gatewayRequestDetails.getRequestId(),
+          gatewayRequestDetails.getApiName(),
+          gatewayRequestDetails.getClientId());
+      Gateway.sendErrorResponse(
+          ctx, HttpResponseStatus.TOO_MANY_REQUESTS, "Maximum Request Allowed Exceeded...");
+      return;
+    }
+
+    // cached responses are served without an upstream call, so without its limits either
+    ResponseCache.Fill fill = null;
+    if (ResponseCache.isCacheable(routeConfig, httpRequest)) {
+      final ResponseCache.Lookup lookup =
+          ResponseCache.lookup(
+              routeConfig.getApiName(), gatewayRequestDetails.getRequestUri(), httpRequest);
+      if (lookup.state() != ResponseCache.State.MISS) {
+        ResponseCache.write(ctx, httpRequest, lookup.cachedResponse());
+        if (lookup.state() == ResponseCache.State.STALE) {
+          revalidate(gatewayRequestDetails, httpRequest, routeConfig, lookup);
+        }
+        return;
+      }
+      fill = ResponseCache.startFill(lookup);
+      if (!fill.isLeader()) {
+        awaitFill(ctx, gatewayRequestDetails, httpRequest, routeConfig, fill);
+        return;
+      }
+    }
+    proxyUpstream(ctx, gatewayRequestDetails, httpRequest, routeConfig, fill);
+  }
+
+  private void proxyUpstream(
+      final ChannelHandlerContext ctx,
+      final GatewayRequestDetails gatewayRequestDetails,
+      final HttpRequest httpRequest,
+      final RouteConfig routeConfig,
+      final ResponseCache.Fill fill) {
+    // excess load is shed here, before any upstream work starts
+    final ConcurrencyLimiter concurrencyLimiter =
+        ConcurrencyLimiter.getConcurrencyLimiter(routeConfig);
+    if (!concurrencyLimiter.tryAcquire(gatewayRequestDetails.getClientId())) {
+      ResponseCache.fail(fill);
+      logger.error(
+          "[{}] ConcurrencyLimiter Response: [{}] | [{}]",
+          gatewayRequestDetails.getRequestId(),
+          gatewayRequestDetails.getClientId(),
+          concurrencyLimiter);
+      Gateway.sendErrorResponse(
+          ctx, HttpResponseStatus.SERVICE_UNAVAILABLE, "Maximum Concurrent Requests Exceeded...");
+      return;
+    }
+
+    final CircuitBreaker circuitBreaker = CircuitBreaker.getCircuitBreaker(routeConfig);
+    if (!circuitBreaker.tryAcquirePermission()) {
+      concurrencyLimiter.release(gatewayRequestDetails.getClientId());
+      ResponseCache.fail(fill);
+      logger.error(
+          "[{}] CircuitBreaker Response: [{}]",
+          gatewayRequestDetails.getRequestId(),
+          circuitBreaker);
+      Gateway.sendErrorResponse(
+          ctx, HttpResponseStatus.SERVICE_UNAVAILABLE, "Maximum Failures Allowed Exceeded...");
+      return;
+    }
+
+    if (HttpUtil.isTransferEncodingChunked(httpRequest)
+        || HttpUtil.getContentLength(httpRequest, 0L) > 0) {
+      requestBody =
+          new StreamingRequestBody(
+              ctx.channel(),
+              getContentType(httpRequest),
+              HttpUtil.isTransferEncodingChunked(httpRequest)
+                  ? -1L
+                  : HttpUtil.getContentLength(httpRequest, -1L));
+    }
+
+    try {
+      final UpstreamGroup upstreamGroup =
+          UpstreamGroup.getUpstreamGroup(routeConfig, gatewayRequestDetails.getTargetBaseUrl());
+      final Request proxyRequest =
+          getProxyRequest(gatewayRequestDetails, httpRequest, requestBody, upstreamGroup);
+      proxyCall =
+          ProxyClient.proxy(
+              routeConfig,
+              upstreamGroup,
+              gatewayRequestDetails.getRequestUri(),
+              fill == null ? proxyRequest : ResponseCache.getFillRequest(fill, proxyRequest),
+              proxyCallback(
+                  ctx,
+                  gatewayRequestDetails,
+                  httpRequest,
+                  circuitBreaker,
+                  concurrencyLimiter,
+                  requestBody,
+                  fill));
+    } catch (RuntimeException ex) {
+      // no call was made, eg: malformed url, so permits are given back without a result
+      concurrencyLimiter.release(gatewayRequestDetails.getClientId());
+      circuitBreaker.onIgnored();
+      ResponseCache.fail(fill);
+      throw ex;
+    }
+  }
+
+  // another request is already filling the entry, its response is shared unless it varies
+  private void awaitFill(
+      final ChannelHandlerContext ctx,
+      final GatewayRequestDetails gatewayRequestDetails,
+      final HttpRequest httpRequest,
+      final RouteConfig routeConfig,
+      final ResponseCache.Fill fill) {
+    fill.future()
+        .whenComplete(
+            (cachedResponse, throwable) ->
+                ctx.executor()
+                    .execute(
+                        () -> {
+                          if (!ctx.channel().isActive()) {
+                            return;
+                          }
+                          if (cachedResponse != null
+                              && ResponseCache.isMatch(
+                                  cachedResponse, fill.lookup(), httpRequest)) {
+                            ResponseCache.write(ctx, httpRequest, cachedResponse);
+                            return;
+                          }
+                          try {
+                            proxyUpstream(
+                                ctx, gatewayRequestDetails, httpRequest, routeConfig, null);
+                          } catch (RuntimeException ex) {
+                            exceptionCaught(ctx, ex);
+                          }
+                        }));
+  }
+
+  // a stale entry was served, one call in the background brings it up to date for the next ones
+  private void revalidate(
+      final GatewayRequestDetails gatewayRequestDetails,
+      final HttpRequest httpRequest,
+      final RouteConfig routeConfig,
+      final ResponseCache.Lookup lookup) {
+    final ResponseCache.Fill fill = ResponseCache.startFill(lookup);
+    if (!fill.isLeader()) {
+      return;
+    }
+
+    // same limits as any upstream call, the stale entry keeps being served while they refuse
+    final String clientId = gatewayRequestDetails.getClientId();
+    final ConcurrencyLimiter concurrencyLimiter =
+        ConcurrencyLimiter.getConcurrencyLimiter(routeConfig);
+    if (!concurrencyLimiter.tryAcquire(clientId)) {
+      ResponseCache.fail(fill);
+      return;
+    }
+    final CircuitBreaker circuitBreaker = CircuitBreaker.getCircuitBreaker(routeConfig);
+    if (!circuitBreaker.tryAcquirePermission()) {
+      concurrencyLimiter.release(clientId);
+      ResponseCache.fail(fill);
+      return;
+    }
+
+    try {
+      final UpstreamGroup upstreamGroup =
+          UpstreamGroup.getUpstreamGroup(routeConfig, gatewayRequestDetails.getTargetBaseUrl());
+      final Request proxyRequest =
+          getProxyRequest(gatewayRequestDetails, httpRequest, null, upstreamGroup);
+      ProxyClient.proxy(
+          routeConfig,
+          upstreamGroup,
+          gatewayRequestDetails.getRequestUri(),
+          ResponseCache.getFillRequest(fill, proxyRequest),
+          new ProxyCall.ResultCallback() {
+            @Override
+            public void onResponse(
+                @NotNull final Call call, @NotNull final Response response, final long rttNanos)
+                throws IOException {
+              final boolean isUpstreamError = response.code() >= 500;
+              if (isUpstreamError) {
+                circuitBreaker.onFailure(rttNanos / 1_000_000);
+              } else {
+                circuitBreaker.onSuccess(rttNanos / 1_000_000);
+              }
+              try (response) {
+                ResponseCache.complete(fill, httpRequest, response);
+              } finally {
+                concurrencyLimiter.release(clientId, rttNanos, isUpstreamError);
+              }
+            }
+
+            @Override
+            public void onFailure(
+                @NotNull final Call call, @NotNull final IOException ex, final long rttNanos) {
+              ResponseCache.fail(fill);
+              circuitBreaker.onFailure(rttNanos / 1_000_000);
+              concurrencyLimiter.release(clientId, rttNanos, true);
+              logger.debug(
+                  "[{}] Response Cache Revalidation Error...",
+                  gatewayRequestDetails.getRequestId(),
+                  ex);
+            }
+          });
+    } catch (RuntimeException ex) {
+      concurrencyLimiter.release(clientId);
+      circuitBreaker.onIgnored();
+      ResponseCache.fail(fill);
+      logger.error(
+          "[{}] Response Cache Revalidation Error...", gatewayRequestDetails.getRequestId(), ex);
+    }
+  }
+
+  private ProxyCall.ResultCallback proxyCallback(
+      final ChannelHandlerContext ctx,
+      final GatewayRequestDetails gatewayRequestDetails,
+      final HttpRequest httpRequest,
+      final CircuitBreaker circuitBreaker,
+      final ConcurrencyLimiter concurrencyLimiter,
+      final StreamingRequestBody streamingRequestBody,
+      final ResponseCache.Fill fill) {
+    final String clientId = gatewayRequestDetails.getClientId();
+    return new ProxyCall.ResultCallback() {
+      @Override
+      public void onResponse(
+          @NotNull final Call call, @NotNull final Response response, final long rttNanos) {
+        try (response) {
+          logger.info("{}", response.code());
+          // upstream answered, client errors are not upstream failures
+          final boolean isUpstreamError = response.code() >= 500;
+          if (isUpstreamError) {
+            circuitBreaker.onFailure(rttNanos / 1_000_000);
+          } else {
+            circuitBreaker.onSuccess(rttNanos / 1_000_000);
+          }
+          // upstream connection stays busy until its body is read, so it counts as in flight
+          try {
+            // a cacheable response is read whole, stored, and shared with the requests waiting
+            final ResponseCache.CachedResponse cachedResponse =
+                fill == null ? null : ResponseCache.complete(fill, httpRequest, response);
+            if (cachedResponse == null) {
+              streamProxyResponse(ctx, gatewayRequestDetails, streamingRequestBody, response);
+            } else {
+              ResponseCache.write(ctx, httpRequest, cachedResponse);
+            }
+          } finally {
+            concurrencyLimiter.release(clientId, rttNanos, isUpstreamError);
+          }
+        } catch (Exception ex) {
+          onProxyError(ctx, gatewayRequestDetails, streamingRequestBody, ex);
+        }
+      }
+
+      @Override
+      public void onFailure(
+          @NotNull final Call call, @NotNull final IOException ex, final long rttNanos) {
+        ResponseCache.fail(fill);
+        // canceled calls are downstream connections closing, not upstream failures
+        if (call.isCanceled()) {
+          circuitBreaker.onIgnored();
+          concurrencyLimiter.release(clientId);
+        } else {
+          circuitBreaker.onFailure(rttNanos / 1_000_000);
+          concurrencyLimiter.release(clientId, rttNanos, true);
+        }
+        onProxyError(ctx, gatewayRequestDetails, streamingRequestBody, ex);
+      }
+    };
+  }
+
+  private void onProxyError(
+      final ChannelHandlerContext ctx,
+      final GatewayRequestDetails gatewayRequestDetails,
+      final StreamingRequestBody streamingRequestBody,
+      final Exception ex) {
+    if (streamingRequestBody != null) {
+      streamingRequestBody.abort();
+    }
+    logger.error("[{}] Proxy Handler Error...", gatewayRequestDetails.getRequestId(), ex);
+    final String errMsg =
+        "["
+            + gatewayRequestDetails.getRequestId()
+            + "] Proxy Handler Error. Cause="
+            + ex.getMessage();
+    ctx.executor()
+        .execute(() -> Gateway.sendErrorResponse(ctx, HttpResponseStatus.BAD_GATEWAY, errMsg));
+  }
+
+  // runs on the okhttp call thread, backend bytes are read from okio straight into pooled direct
+  // buffers and written as they are read while the downstream channel keeps up
+  private void streamProxyResponse(
+      final ChannelHandlerContext ctx,
+      final GatewayRequestDetails gatewayRequestDetails,
+      final StreamingRequestBody streamingRequestBody,
+      final Response response)
+      throws IOException, InterruptedException {
+    final ResponseBody responseBody = response.body();
+    final HttpResponse httpResponse = getProxyResponse(response, responseBody.contentLength());
+    final Channel channel = ctx.channel();
+    ctx.writeAndFlush(httpResponse);
+
+    boolean isComplete = false;
+    long responseBytes = 0;
+    try {
+      final BufferedSource bufferedSource = responseBody.source();
+      while (channel.isActive()) {
+        awaitWritable(channel);
+        final ByteBuf content = ctx.alloc().ioBuffer(Constants.PROXY_BODY_CHUNK_SIZE);
+        final ByteBuffer byteBuffer =
+            content.nioBuffer(content.writerIndex(), content.writableBytes());
+        final int readBytes;
+        try {
+          readBytes = bufferedSource.read(byteBuffer);
+        } catch (IOException ex) {
+          content.release();
+          throw ex;
+        }
+        if (readBytes < 0) {
+          content.release();
+          isComplete = true;
+          break;
+        }
+        content.writerIndex(content.writerIndex() + readBytes);
+        responseBytes += readBytes;
+        ctx.writeAndFlush(new DefaultHttpContent(content));
+      }
+    } finally {
+      if (isComplete) {
+        ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        final long requestBytes =
+            streamingRequestBody == null ? 0 : streamingRequestBody.getWrittenBytes();
+        ProxyBodyStats.record(requestBytes, responseBytes);
+        logger.debug(
+            "[{}] Proxy Body Bytes: [{}] Request, [{}] Response",
+            gatewayRequestDetails.getRequestId(),
+            requestBytes,
+            responseBytes);
+      } else {
+        // headers are already out, the only way to signal a broken body is to close
+        logger.error(
+            "[{}] Proxy Response Stream Incomplete...", gatewayRequestDetails.getRequestId());
+        ctx.close();
+      }
+    }
+  }
+
+  private void awaitWritable(final Channel channel) throws InterruptedException {
+    synchronized (writabilityMonitor) {
+      while (channel.isActive() && !channel.isWritable()) {
+        writabilityMonitor.wait(Constants.PROXY_WRITABILITY_WAIT_MILLIS);
+      }
+    }
+  }
+
+  private HttpResponse getProxyResponse(final Response response, final long contentLength) {
+    final HttpResponseStatus status = HttpResponseStatus.valueOf(response.code());
+    final HttpResponse httpResponse = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+
+    for (Map.Entry<String, List<String>> header : response.headers().toMultimap().entrySet()) {
+      for (String value : header.getValue()) {
+        httpResponse.headers().add(header.getKey(), value);
+      }
+    }
+
+    // body is re-framed here, hop-by-hop headers from upstream do not apply downstream
+    httpResponse
+        .headers()
+        .remove(HttpHeaderNames.CONNECTION)
+        .remove("keep-alive")
+        .remove(HttpHeaderNames.TRANSFER_ENCODING);
+    if (HttpResponseStatus.NOT_MODIFIED.equals(status)) {
+      // no body follows a 304, a content length or chunked framing would make clients wait for one
+      httpResponse.headers().remove(HttpHeaderNames.CONTENT_LENGTH);
+    } else if (!HttpMethod.HEAD.name().equals(response.request().method())) {
+      // okhttp reads no body for head, so the upstream content length, that of a get, is kept
+      if (contentLength >= 0) {
+        HttpUtil.setContentLength(httpResponse, contentLength);
+      } else if (!httpResponse.headers().contains(HttpHeaderNames.CONTENT_LENGTH)) {
+        HttpUtil.setTransferEncodingChunked(httpResponse, true);
+      }
+    }
+
+    if (List.of(HttpStatusClass.SUCCESS, HttpStatusClass.CLIENT_ERROR, HttpStatusClass.SERVER_ERROR)
+            .contains(status.codeClass())
+        && httpResponse.headers().get(HttpHeaderNames.CONTENT_TYPE) == null) {
+      httpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+    }
+
+    return httpResponse;
+  }
+
   private Request getProxyRequest(
-      final GatewayRequestDetails gatewayRequestDetails, final FullHttpRequest fullHttpRequest) {
-    final String url =
-        gatewayRequestDetails.getTargetBaseUrl() + gatewayRequestDetails.getRequestUri();
-    final RequestBody body =
-        fullHttpRequest.content() == null || fullHttpRequest.content().readableBytes() == 0
-            ? null
-            : RequestBody.create(
-                ByteBufUtil.getBytes(fullHttpRequest.content()),
-                MediaType.parse(HttpHeaderValues.APPLICATION_JSON.toString()));
+      final GatewayRequestDetails gatewayRequestDetails,
+      final HttpRequest httpRequest,
+      final StreamingRequestBody streamingRequestBody,
+      final UpstreamGroup upstreamGroup) {
+    final String url = upstreamGroup.getFirstBaseUrl() + gatewayRequestDetails.getRequestUri();
+    RequestBody body = streamingRequestBody;
+    if (body == null && BODY_REQUIRED_METHODS.contains(httpRequest.method())) {
+      body = RequestBody.create(new byte[0], getContentType(httpRequest));
+    }
 
     final Headers.Builder headersBuilder = new Headers.Builder();
-    final List<String> proxyHeaders = Routes.getProxyHeaders();
-    fullHttpRequest.headers().entries().stream()
+    final List<String> proxyHeaders = gatewayRequestDetails.getRouteSnapshot().proxyHeaders();
+    httpRequest.headers().entries().stream()
         .filter(
             stringStringEntry -> proxyHeaders.contains(stringStringEntry.getKey().toLowerCase()))
         .forEach(httpHeaders -> headersBuilder.add(httpHeaders.getKey(), httpHeaders.getValue()));
@@ -172,11 +544,19 @@ public class ProxyHandler extends ChannelInboundHandlerAdapter {
     Request.Builder requestBuilder =
         new Request.Builder()
             .url(url)
-            .method(fullHttpRequest.method().name(), body)
+            .method(httpRequest.method().name(), body)
             .headers(headersBuilder.build());
     requestBuilder.addHeader(
         Constants.GATEWAY_REQUEST_DETAILS_KEY.name(), gatewayRequestDetails.getRequestId());
 
     return requestBuilder.build();
   }
+
+  private MediaType getContentType(final HttpRequest httpRequest) {
+    final String contentType = httpRequest.headers().get(HttpHeaderNames.CONTENT_TYPE);
+    final MediaType mediaType = contentType == null ? null : MediaType.parse(contentType);
+    return mediaType == null
+        ? MediaType.parse(HttpHeaderValues.APPLICATION_JSON.toString())
+        : mediaType;
+  }
 }
@@ -0,0 +1,16 @@
+package gateway.service.proxy;
+
+import java.util.concurrent.CompletableFuture;
+
+// shared token buckets for limits that hold across gateway replicas, nodes lease tokens in
+// batches and spend them locally, so the store is called once per batch and not per request
+// an extension point for code only, there is no setting for it, an implementation backed by the
+// deployment's shared store is passed to RateLimiter.setQuotaStore
+public interface QuotaStore {
+
+  // completes with the number of tokens granted, 0 up to requested, when the store answers
+  CompletableFuture<Long> acquire(String key, long requested, int requestsPerSecond, int burst);
+
+  // drops buckets that have refilled completely, stores with their own expiry do not need it
+  default void sweep() {}
+}
@@ -1,43 +1,295 @@
 package gateway.service.proxy;
 
-import java.util.Date;
+import gateway.service.dtos.RouteConfig;
+import gateway.service.utils.Constants;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+// token buckets kept as gcra theoretical arrival times, one compare and set per check and no
+// refill thread, a route wide bucket and one bucket per client of the route
+// with a quota store set from code, buckets spend tokens leased in batches from the store shared
+// by all replicas, and fall back to the local limit while no lease is available
 public class RateLimiter {
-  private final Integer MAX_REQUESTS;
-  private final Long TIME_WINDOW_MILLIS;
+  private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
 
-  private final AtomicLong REQUEST_COUNT = new AtomicLong(0);
-  private final AtomicLong LAST_REQUEST_TIME = new AtomicLong(0);
+  // none ships with the gateway, limits stay per replica unless code sets one
+  private static volatile QuotaStore quotaStore = null;
 
-  public RateLimiter(int maxRequests, long timeWindowMillis) {
-    this.MAX_REQUESTS = maxRequests;
-    this.TIME_WINDOW_MILLIS = timeWindowMillis;
+  private static final Map<String, Bucket> ROUTE_BUCKETS = new ConcurrentHashMap<>();
+  private static final Map<String, Bucket> CLIENT_BUCKETS = new ConcurrentHashMap<>();
+
+  private static final LongAdder ALLOWED = new LongAdder();
+  private static final LongAdder ROUTE_REJECTED = new LongAdder();
+  private static final LongAdder CLIENT_REJECTED = new LongAdder();
+  private static final LongAdder EVICTED = new LongAdder();
+  private static final LongAdder LEASES = new LongAdder();
+  private static final LongAdder LEASE_FAILURES = new LongAdder();
+  private static final LongAdder LOCAL_FALLBACKS = new LongAdder();
+
+  private static final ScheduledExecutorService SWEEP_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "rate-limiter-sweep");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  static {
+    SWEEP_EXECUTOR.scheduleWithFixedDelay(
+        RateLimiter::sweep,
+        Constants.RL_SWEEP_INTERVAL_SECONDS,
+        Constants.RL_SWEEP_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
   }
 
-  public boolean allowRequest() {
-    long currentTime = System.currentTimeMillis();
+  public static boolean tryAcquire(final RouteConfig routeConfig, final String clientId) {
+    final long nowNanos = System.nanoTime();
+    final String apiName = routeConfig.getApiName();
 
-    if (currentTime - LAST_REQUEST_TIME.get() > TIME_WINDOW_MILLIS) {
-      REQUEST_COUNT.set(0);
+    // client first, so that a client over its own limit does not use up the route limit
+    final Bucket clientBucket =
+        getBucket(
+            CLIENT_BUCKETS,
+            apiName + "|" + clientId,
+            routeConfig.getRlClientRequestsPerSecond(),
+            routeConfig.getRlClientBurst());
+    if (clientBucket != null && !clientBucket.tryAcquire(nowNanos)) {
+      CLIENT_REJECTED.increment();
+      return false;
     }
 
-    if (REQUEST_COUNT.incrementAndGet() <= MAX_REQUESTS) {
-      LAST_REQUEST_TIME.set(currentTime);
-      return true;
-    } else {
-      REQUEST_COUNT.decrementAndGet();
+    final Bucket routeBucket =
+        getBucket(
+            ROUTE_BUCKETS,
+            apiName,
+            routeConfig.getRlRouteRequestsPerSecond(),
+            routeConfig.getRlRouteBurst());
+    if (routeBucket != null && !routeBucket.tryAcquire(nowNanos)) {
+      if (clientBucket != null) {
+        clientBucket.release();
+      }
+      ROUTE_REJECTED.increment();
       return false;
     }
+
+    ALLOWED.increment();
+    return true;
+  }
+
+  // extension point for a store shared by the replicas, eg: redis, to be set before the server
+  // starts, null goes back to per replica limits
+  public static void setQuotaStore(final QuotaStore newQuotaStore) {
+    logger.info(
+        "Rate Limiter Quota Store: [{}]",
+        newQuotaStore == null ? null : newQuotaStore.getClass().getSimpleName());
+    quotaStore = newQuotaStore;
+    ROUTE_BUCKETS.clear();
+    CLIENT_BUCKETS.clear();
+  }
+
+  public static Map<String, Object> getStats() {
+    final QuotaStore currentQuotaStore = quotaStore;
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("mode", getMode(currentQuotaStore));
+    stats.put(
+        "quotaStore",
+        currentQuotaStore == null ? null : currentQuotaStore.getClass().getSimpleName());
+    stats.put("routeBuckets", ROUTE_BUCKETS.size());
+    stats.put("clientBuckets", CLIENT_BUCKETS.size());
+    stats.put("allowed", ALLOWED.sum());
+    stats.put("routeRejected", ROUTE_REJECTED.sum());
+    stats.put("clientRejected", CLIENT_REJECTED.sum());
+    stats.put("evicted", EVICTED.sum());
+    stats.put("leases", LEASES.sum());
+    stats.put("leaseFailures", LEASE_FAILURES.sum());
+    stats.put("localFallbacks", LOCAL_FALLBACKS.sum());
+    return stats;
+  }
+
+  // what the limits actually are, distributed only once a shared store is set
+  private static String getMode(final QuotaStore currentQuotaStore) {
+    return currentQuotaStore == null ? Constants.RL_MODE_LOCAL : Constants.RL_MODE_DISTRIBUTED;
+  }
+
+  // null when the limit is not configured
+  private static Bucket getBucket(
+      final Map<String, Bucket> buckets,
+      final String key,
+      final int requestsPerSecond,
+      final int burst) {
+    if (requestsPerSecond <= 0) {
+      return null;
+    }
+    final Bucket bucket = buckets.get(key);
+    if (bucket != null && bucket.isSameLimit(requestsPerSecond, burst)) {
+      return bucket;
+    }
+    // first request for the key, or its limit changed in a routes refresh
+    return buckets.compute(
+        key,
+        (bucketKey, existing) ->
+            existing != null && existing.isSameLimit(requestsPerSecond, burst)
+                ? existing
+                : new Bucket(bucketKey, requestsPerSecond, burst, quotaStore));
+  }
+
+  private static void sweep() {
+    sweep(System.nanoTime());
+  }
+
+  // a bucket that has refilled completely is the same as a new one, so dropping it loses nothing
+  static void sweep(final long nowNanos) {
+    try {
+      final int routeBuckets = ROUTE_BUCKETS.size();
+      final int clientBuckets = CLIENT_BUCKETS.size();
+      ROUTE_BUCKETS.values().removeIf(bucket -> bucket.isIdle(nowNanos));
+      CLIENT_BUCKETS.values().removeIf(bucket -> bucket.isIdle(nowNanos));
+      final int evicted =
+          routeBuckets - ROUTE_BUCKETS.size() + clientBuckets - CLIENT_BUCKETS.size();
+      if (evicted > 0) {
+        EVICTED.add(evicted);
+        logger.debug("Rate Limiter Buckets Evicted: [{}]", evicted);
+      }
+      final QuotaStore currentQuotaStore = quotaStore;
+      if (currentQuotaStore != null) {
+        currentQuotaStore.sweep();
+      }
+    } catch (Exception ex) {
+      logger.error("Rate Limiter Sweep Error...", ex);
+    }
   }
 
-  @Override
-  public String toString() {
-    return "RateLimiter: [ "
-        + "Request Count: "
-        + REQUEST_COUNT
-        + ", Last Request Time: "
-        + new Date(LAST_REQUEST_TIME.get())
-        + " ]";
+  // tokens leased from the quota store, unused ones are given up when the lease expires so that
+  // idle replicas do not hold on to the shared limit
+  private record Lease(AtomicLong remaining, long expiresAtNanos) {}
+
+  static final class Bucket {
+    private final String key;
+    private final int requestsPerSecond;
+    private final int burst;
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+    // when the bucket is full again if nothing else is taken from it
+    private final AtomicLong theoreticalArrivalNanos;
+    private final QuotaStore quotaStore;
+    private final long leaseSize;
+    private final AtomicReference<Lease> lease = new AtomicReference<>();
+    private final AtomicBoolean isLeasing = new AtomicBoolean();
+
+    Bucket(
+        final String key,
+        final int requestsPerSecond,
+        final int burst,
+        final QuotaStore quotaStore) {
+      this.key = key;
+      this.requestsPerSecond = requestsPerSecond;
+      this.burst = burst;
+      this.emissionIntervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+      this.burstNanos = emissionIntervalNanos * burst;
+      this.theoreticalArrivalNanos = new AtomicLong(System.nanoTime());
+      this.quotaStore = quotaStore;
+      this.leaseSize = Math.max(1, (long) requestsPerSecond * Constants.RL_LEASE_PERCENT / 100);
+    }
+
+    boolean tryAcquire(final long nowNanos) {
+      if (quotaStore != null) {
+        final Lease currentLease = getLease(nowNanos);
+        if (currentLease != null) {
+          final long remaining = currentLease.remaining().decrementAndGet();
+          if (remaining < leaseSize / 2) {
+            fetchLease();
+          }
+          return remaining >= 0;
+        }
+        fetchLease();
+        LOCAL_FALLBACKS.increment();
+      }
+
+      while (true) {
+        final long arrivalNanos = theoreticalArrivalNanos.get();
+        final long newArrivalNanos =
+            (arrivalNanos - nowNanos > 0 ? arrivalNanos : nowNanos) + emissionIntervalNanos;
+        if (newArrivalNanos - nowNanos > burstNanos) {
+          return false;
+        }
+        if (theoreticalArrivalNanos.compareAndSet(arrivalNanos, newArrivalNanos)) {
+          return true;
+        }
+      }
+    }
+
+    // hands back a token taken for a request that was rejected further on
+    void release() {
+      final Lease currentLease = getLease(System.nanoTime());
+      if (currentLease != null) {
+        currentLease.remaining().incrementAndGet();
+      } else {
+        theoreticalArrivalNanos.addAndGet(-emissionIntervalNanos);
+      }
+    }
+
+    private Lease getLease(final long nowNanos) {
+      final Lease currentLease = lease.get();
+      return currentLease == null || currentLease.expiresAtNanos() - nowNanos <= 0
+          ? null
+          : currentLease;
+    }
+
+    // one store call at a time per bucket, tokens left over from the current lease carry over
+    private void fetchLease() {
+      if (!isLeasing.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        quotaStore
+            .acquire(key, leaseSize, requestsPerSecond, burst)
+            .whenComplete(
+                (granted, throwable) -> {
+                  try {
+                    if (throwable != null) {
+                      LEASE_FAILURES.increment();
+                      logger.debug("Rate Limiter Lease Error: [{}]", key, throwable);
+                      return;
+                    }
+                    LEASES.increment();
+                    final Lease currentLease = getLease(System.nanoTime());
+                    final long carriedOver =
+                        currentLease == null ? 0 : Math.max(0, currentLease.remaining().get());
+                    // an empty grant is retried once the store has refilled one lease
+                    final long leaseNanos =
+                        granted > 0
+                            ? TimeUnit.MILLISECONDS.toNanos(Constants.RL_LEASE_MILLIS)
+                            : emissionIntervalNanos * leaseSize;
+                    lease.set(
+                        new Lease(
+                            new AtomicLong(granted + carriedOver), System.nanoTime() + leaseNanos));
+                  } finally {
+                    isLeasing.set(false);
+                  }
+                });
+      } catch (Exception ex) {
+        LEASE_FAILURES.increment();
+        isLeasing.set(false);
+        logger.debug("Rate Limiter Lease Error: [{}]", key, ex);
+      }
+    }
+
+    boolean isIdle(final long nowNanos) {
+      return theoreticalArrivalNanos.get() - nowNanos <= 0 && getLease(nowNanos) == null;
+    }
+
+    private boolean isSameLimit(final int requestsPerSecond, final int burst) {
+      return this.requestsPerSecond == requestsPerSecond && this.burst == burst;
+    }
   }
 }
@@ -0,0 +1,40 @@
+package gateway.service.proxy;
+
+import gateway.service.utils.Constants;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+
+// downstream reads are paused for more than one reason at a time, eg: pipelined requests queued,
+// a request body waiting on upstream, a token being validated, each reason holds one pause and
+// reads resume only once none is held, the count is only touched on the channel's event loop
+public class ReadPause {
+
+  public static void pause(final Channel channel) {
+    if (!channel.eventLoop().inEventLoop()) {
+      channel.eventLoop().execute(() -> pause(channel));
+      return;
+    }
+    final Attribute<Integer> pauseCount = channel.attr(Constants.READ_PAUSE_COUNT_KEY);
+    final int count = pauseCount.get() == null ? 0 : pauseCount.get();
+    pauseCount.set(count + 1);
+    if (count == 0) {
+      channel.config().setAutoRead(false);
+    }
+  }
+
+  public static void resume(final Channel channel) {
+    if (!channel.eventLoop().inEventLoop()) {
+      channel.eventLoop().execute(() -> resume(channel));
+      return;
+    }
+    final Attribute<Integer> pauseCount = channel.attr(Constants.READ_PAUSE_COUNT_KEY);
+    final int count = pauseCount.get() == null ? 0 : pauseCount.get();
+    if (count == 0) {
+      return;
+    }
+    pauseCount.set(count - 1);
+    if (count == 1) {
+      channel.config().setAutoRead(true);
+    }
+  }
+}
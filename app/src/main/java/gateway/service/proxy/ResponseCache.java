@@ -0,0 +1,605 @@
+package gateway.service.proxy;
+
+import gateway.service.dtos.RouteConfig;
+import gateway.service.utils.Constants;
+import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// shared cache of upstream get responses for routes that opt in, freshness comes from upstream
+// cache-control, stale entries with an etag are revalidated with if-none-match, and requests
+// missing the same entry wait for the one upstream call filling it
+// entries are kept in lru order within a memory budget, a new entry only pushes out entries
+// used less often than itself (tinylfu admission with a count-min sketch)
+// lookups read a concurrent map without locking, their accesses are recorded in lossy buffers
+// and replayed into the lru order and the sketch under the eviction lock, in batches
+public class ResponseCache {
+  private static final Logger logger = LoggerFactory.getLogger(ResponseCache.class);
+
+  private static final long MAX_BYTES =
+      Long.parseLong(
+          CommonUtilities.getSystemEnvProperty(
+              Constants.ENV_RESPONSE_CACHE_MAX_BYTES,
+              Constants.ENV_RESPONSE_CACHE_MAX_BYTES_DEFAULT));
+
+  private static final Map<String, CachedResponse> ENTRIES = new ConcurrentHashMap<>();
+  private static final AccessBuffer ACCESS_BUFFER = new AccessBuffer();
+  private static final ReentrantLock EVICTION_LOCK = new ReentrantLock();
+  // access ordered, eldest first, guarded by the eviction lock together with the sketch and size
+  private static final LinkedHashMap<String, CachedResponse> ACCESS_ORDER =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private static final FrequencySketch SKETCH =
+      new FrequencySketch(Constants.RESPONSE_CACHE_SKETCH_WIDTH);
+  // vary header names last seen for a primary key, needed to build the key of a request
+  private static final Map<String, List<String>> VARY_HEADERS = new ConcurrentHashMap<>();
+  private static final Map<String, CompletableFuture<CachedResponse>> FILLS =
+      new ConcurrentHashMap<>();
+  private static long sizeBytes = 0;
+
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder STALE_HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+  private static final LongAdder COALESCED = new LongAdder();
+  private static final LongAdder REVALIDATIONS = new LongAdder();
+  private static final LongAdder NOT_MODIFIED = new LongAdder();
+  private static final LongAdder STORES = new LongAdder();
+  private static final LongAdder UNCACHEABLE = new LongAdder();
+  private static final LongAdder REJECTED = new LongAdder();
+  private static final LongAdder EVICTIONS = new LongAdder();
+
+  enum State {
+    // served as is
+    FRESH,
+    // served as is, and revalidated in the background
+    STALE,
+    // goes upstream, conditionally when there is a stale entry with an etag
+    MISS
+  }
+
+  record Lookup(String primaryKey, String key, CachedResponse cachedResponse, State state) {}
+
+  // the upstream call filling (or revalidating) one entry, only the leader makes it
+  record Fill(Lookup lookup, CompletableFuture<CachedResponse> future, boolean isLeader) {}
+
+  record CachedResponse(
+      String key,
+      List<String> varyHeaders,
+      Headers headers,
+      byte[] body,
+      String etag,
+      long storedAtMillis,
+      long maxAgeMillis,
+      long staleWhileRevalidateMillis) {
+    private long sizeBytes() {
+      return key.length() + headers.byteCount() + body.length + 64;
+    }
+
+    private long ageMillis(final long nowMillis) {
+      return Math.max(0, nowMillis - storedAtMillis);
+    }
+  }
+
+  // get requests without a body on routes with the cache on, unless the client asks to skip it
+  static boolean isCacheable(final RouteConfig routeConfig, final HttpRequest httpRequest) {
+    return routeConfig.isCacheEnabled()
+        && HttpMethod.GET.equals(httpRequest.method())
+        && !HttpUtil.isTransferEncodingChunked(httpRequest)
+        && HttpUtil.getContentLength(httpRequest, 0L) == 0
+        && !httpRequest
+            .headers()
+            .containsValue(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_STORE, true)
+        && !httpRequest
+            .headers()
+            .containsValue(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE, true);
+  }
+
+  static Lookup lookup(
+      final String apiName, final String requestUri, final HttpRequest httpRequest) {
+    final String primaryKey = apiName + " " + requestUri;
+    final List<String> varyHeaders = VARY_HEADERS.getOrDefault(primaryKey, List.of());
+    final String key = getKey(primaryKey, varyHeaders, httpRequest);
+    final long nowMillis = System.currentTimeMillis();
+
+    final CachedResponse cachedResponse = ENTRIES.get(key);
+    // misses are recorded too, a key has to be wanted often to get in
+    if (ACCESS_BUFFER.record(key)) {
+      drainAccessBuffer();
+    }
+    if (cachedResponse == null) {
+      MISSES.increment();
+      return new Lookup(primaryKey, key, null, State.MISS);
+    }
+
+    final long ageMillis = cachedResponse.ageMillis(nowMillis);
+    if (ageMillis < cachedResponse.maxAgeMillis()) {
+      HITS.increment();
+      return new Lookup(primaryKey, key, cachedResponse, State.FRESH);
+    }
+    if (ageMillis < cachedResponse.maxAgeMillis() + cachedResponse.staleWhileRevalidateMillis()) {
+      STALE_HITS.increment();
+      return new Lookup(primaryKey, key, cachedResponse, State.STALE);
+    }
+    MISSES.increment();
+    // without an etag a stale entry can not be revalidated, it is only taking up space
+    return new Lookup(
+        primaryKey, key, cachedResponse.etag() == null ? null : cachedResponse, State.MISS);
+  }
+
+  // the first request for a key leads, the others wait for its result
+  static Fill startFill(final Lookup lookup) {
+    final CompletableFuture<CachedResponse> future = new CompletableFuture<>();
+    final CompletableFuture<CachedResponse> existing = FILLS.putIfAbsent(lookup.key(), future);
+    if (existing != null) {
+      COALESCED.increment();
+      return new Fill(lookup, existing, false);
+    }
+    return new Fill(lookup, future, true);
+  }
+
+  // the cache wants a full response or a 304 for its own entry, not for the client's copy
+  static Request getFillRequest(final Fill fill, final Request request) {
+    final Request.Builder requestBuilder =
+        request
+            .newBuilder()
+            .removeHeader(HttpHeaderNames.IF_NONE_MATCH.toString())
+            .removeHeader(HttpHeaderNames.IF_MODIFIED_SINCE.toString());
+    final CachedResponse staleResponse = fill.lookup().cachedResponse();
+    if (staleResponse != null && staleResponse.etag() != null) {
+      REVALIDATIONS.increment();
+      requestBuilder.header(HttpHeaderNames.IF_NONE_MATCH.toString(), staleResponse.etag());
+    }
+    return requestBuilder.build();
+  }
+
+  // reads and stores a cacheable upstream response, null when it has to be streamed as usual
+  // instead, waiting requests get the result either way
+  static CachedResponse complete(
+      final Fill fill, final HttpRequest httpRequest, final Response response) throws IOException {
+    CachedResponse cachedResponse = null;
+    try {
+      cachedResponse = toCachedResponse(fill, httpRequest, response);
+      if (cachedResponse == null) {
+        UNCACHEABLE.increment();
+      } else {
+        store(fill.lookup().primaryKey(), cachedResponse);
+      }
+      return cachedResponse;
+    } finally {
+      finish(fill, cachedResponse);
+    }
+  }
+
+  // upstream call failed or was not made, waiting requests go upstream themselves
+  static void fail(final Fill fill) {
+    if (fill != null) {
+      finish(fill, null);
+    }
+  }
+
+  // a response filled for another request is only usable if it varies the same way for this one
+  static boolean isMatch(
+      final CachedResponse cachedResponse, final Lookup lookup, final HttpRequest httpRequest) {
+    return cachedResponse
+        .key()
+        .equals(getKey(lookup.primaryKey(), cachedResponse.varyHeaders(), httpRequest));
+  }
+
+  static void write(
+      final ChannelHandlerContext ctx,
+      final HttpRequest httpRequest,
+      final CachedResponse cachedResponse) {
+    final boolean isNotModified = isNotModified(httpRequest, cachedResponse);
+    final FullHttpResponse fullHttpResponse =
+        isNotModified
+            ? new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED)
+            : new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1,
+                HttpResponseStatus.OK,
+                Unpooled.wrappedBuffer(cachedResponse.body()));
+    final Headers headers = cachedResponse.headers();
+    for (int i = 0; i < headers.size(); i++) {
+      fullHttpResponse.headers().add(headers.name(i), headers.value(i));
+    }
+    fullHttpResponse
+        .headers()
+        .set(
+            HttpHeaderNames.AGE,
+            TimeUnit.MILLISECONDS.toSeconds(cachedResponse.ageMillis(System.currentTimeMillis())));
+    if (isNotModified) {
+      fullHttpResponse.headers().remove(HttpHeaderNames.CONTENT_TYPE);
+    } else {
+      HttpUtil.setContentLength(fullHttpResponse, cachedResponse.body().length);
+    }
+    ctx.writeAndFlush(fullHttpResponse);
+  }
+
+  public static Map<String, Object> getStats() {
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("entries", ENTRIES.size());
+    EVICTION_LOCK.lock();
+    try {
+      stats.put("sizeBytes", sizeBytes);
+    } finally {
+      EVICTION_LOCK.unlock();
+    }
+    stats.put("maxBytes", MAX_BYTES);
+    stats.put("fills", FILLS.size());
+    stats.put("hits", HITS.sum());
+    stats.put("staleHits", STALE_HITS.sum());
+    stats.put("misses", MISSES.sum());
+    stats.put("coalesced", COALESCED.sum());
+    stats.put("revalidations", REVALIDATIONS.sum());
+    stats.put("notModified", NOT_MODIFIED.sum());
+    stats.put("stores", STORES.sum());
+    stats.put("uncacheable", UNCACHEABLE.sum());
+    stats.put("rejected", REJECTED.sum());
+    stats.put("evictions", EVICTIONS.sum());
+    return stats;
+  }
+
+  private static void finish(final Fill fill, final CachedResponse cachedResponse) {
+    FILLS.remove(fill.lookup().key(), fill.future());
+    fill.future().complete(cachedResponse);
+  }
+
+  private static CachedResponse toCachedResponse(
+      final Fill fill, final HttpRequest httpRequest, final Response response) throws IOException {
+    final long storedAtMillis =
+        System.currentTimeMillis()
+            - TimeUnit.SECONDS.toMillis(
+                Math.max(
+                    0,
+                    CommonUtilities.parseIntNoEx(
+                        response.header(HttpHeaderNames.AGE.toString(), "0"))));
+
+    final CachedResponse staleResponse = fill.lookup().cachedResponse();
+    if (response.code() == 304 && staleResponse != null) {
+      // same body, freshness from the stored headers updated with the ones sent with the 304
+      NOT_MODIFIED.increment();
+      final Headers headers = mergeHeaders(staleResponse.headers(), getStoredHeaders(response));
+      return new CachedResponse(
+          staleResponse.key(),
+          staleResponse.varyHeaders(),
+          headers,
+          staleResponse.body(),
+          headers.get(HttpHeaderNames.ETAG.toString()),
+          storedAtMillis,
+          TimeUnit.SECONDS.toMillis(getMaxAgeSeconds(CacheControl.parse(headers))),
+          TimeUnit.SECONDS.toMillis(getStaleWhileRevalidateSeconds(headers)));
+    }
+    if (response.code() != 200) {
+      return null;
+    }
+
+    // shared cache rules: nothing private, per user or with unbounded variants
+    final CacheControl cacheControl = response.cacheControl();
+    final String vary = response.header(HttpHeaderNames.VARY.toString(), "");
+    if (cacheControl.noStore()
+        || cacheControl.isPrivate()
+        || vary.contains("*")
+        || response.header(HttpHeaderNames.SET_COOKIE.toString()) != null) {
+      return null;
+    }
+    if (httpRequest.headers().contains(HttpHeaderNames.AUTHORIZATION)
+        && !cacheControl.isPublic()
+        && cacheControl.sMaxAgeSeconds() < 0
+        && !cacheControl.mustRevalidate()) {
+      return null;
+    }
+
+    // fresh for no time and no way to revalidate is not worth keeping, nor is a body too big
+    final long maxAgeSeconds = getMaxAgeSeconds(cacheControl);
+    final String etag = response.header(HttpHeaderNames.ETAG.toString());
+    final ResponseBody responseBody = response.body();
+    if ((maxAgeSeconds == 0 && etag == null)
+        || responseBody.contentLength() > Constants.RESPONSE_CACHE_MAX_ENTRY_BYTES) {
+      return null;
+    }
+    // without a content length, eg: chunked or unzipped by okhttp, the body is read up to the
+    // limit, a longer one is then streamed on from the same source, the bytes read included
+    final BufferedSource bufferedSource = responseBody.source();
+    if (bufferedSource.request(Constants.RESPONSE_CACHE_MAX_ENTRY_BYTES + 1)) {
+      return null;
+    }
+
+    final List<String> varyHeaders =
+        Arrays.stream(vary.split(","))
+            .map(String::trim)
+            .filter(header -> !header.isEmpty())
+            .map(String::toLowerCase)
+            .sorted()
+            .toList();
+    return new CachedResponse(
+        getKey(fill.lookup().primaryKey(), varyHeaders, httpRequest),
+        varyHeaders,
+        getStoredHeaders(response),
+        bufferedSource.readByteArray(),
+        etag,
+        storedAtMillis,
+        TimeUnit.SECONDS.toMillis(maxAgeSeconds),
+        TimeUnit.SECONDS.toMillis(getStaleWhileRevalidateSeconds(response.headers())));
+  }
+
+  // s-maxage is meant for shared caches like this one, no-cache means revalidate every time
+  private static long getMaxAgeSeconds(final CacheControl cacheControl) {
+    if (cacheControl.noCache()) {
+      return 0;
+    }
+    return cacheControl.sMaxAgeSeconds() >= 0
+        ? cacheControl.sMaxAgeSeconds()
+        : Math.max(0, cacheControl.maxAgeSeconds());
+  }
+
+  // end to end headers only, body framing and age are set when the entry is served
+  private static Headers getStoredHeaders(final Response response) {
+    return response
+        .headers()
+        .newBuilder()
+        .removeAll(HttpHeaderNames.CONNECTION.toString())
+        .removeAll("keep-alive")
+        .removeAll(HttpHeaderNames.TRANSFER_ENCODING.toString())
+        .removeAll(HttpHeaderNames.CONTENT_LENGTH.toString())
+        .removeAll(HttpHeaderNames.AGE.toString())
+        .build();
+  }
+
+  // headers sent with a 304 replace the stored ones of the same name
+  private static Headers mergeHeaders(final Headers storedHeaders, final Headers newHeaders) {
+    final Headers.Builder headersBuilder = storedHeaders.newBuilder();
+    newHeaders.names().forEach(headersBuilder::removeAll);
+    return headersBuilder.addAll(newHeaders).build();
+  }
+
+  // not parsed by okhttp, eg: cache-control: max-age=60, stale-while-revalidate=300
+  private static long getStaleWhileRevalidateSeconds(final Headers headers) {
+    for (final String cacheControl : headers.values(HttpHeaderNames.CACHE_CONTROL.toString())) {
+      for (final String directive : cacheControl.split(",")) {
+        final String[] nameValue = directive.trim().split("=", 2);
+        if (nameValue.length == 2
+            && "stale-while-revalidate".equalsIgnoreCase(nameValue[0].trim())) {
+          return Math.max(0, CommonUtilities.parseIntNoEx(nameValue[1].trim().replace("\"", "")));
+        }
+      }
+    }
+    return 0;
+  }
+
+  private static String getKey(
+      final String primaryKey, final List<String> varyHeaders, final HttpRequest httpRequest) {
+    if (varyHeaders.isEmpty()) {
+      return primaryKey;
+    }
+    final StringBuilder key = new StringBuilder(primaryKey);
+    for (final String varyHeader : varyHeaders) {
+      key.append('|').append(String.join(",", httpRequest.headers().getAll(varyHeader)));
+    }
+    return key.toString();
+  }
+
+  private static boolean isNotModified(
+      final HttpRequest httpRequest, final CachedResponse cachedResponse) {
+    final String ifNoneMatch = httpRequest.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+    if (ifNoneMatch == null || cachedResponse.etag() == null) {
+      return false;
+    }
+    // weak comparison, as required for if-none-match
+    final String etag = stripWeak(cachedResponse.etag());
+    return Arrays.stream(ifNoneMatch.split(","))
+        .map(String::trim)
+        .anyMatch(tag -> "*".equals(tag) || stripWeak(tag).equals(etag));
+  }
+
+  private static String stripWeak(final String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  private static void store(final String primaryKey, final CachedResponse cachedResponse) {
+    final long entrySizeBytes = cachedResponse.sizeBytes();
+    if (entrySizeBytes > MAX_BYTES) {
+      REJECTED.increment();
+      return;
+    }
+    EVICTION_LOCK.lock();
+    try {
+      ACCESS_BUFFER.drain(ResponseCache::onAccess);
+      final CachedResponse previous = ACCESS_ORDER.remove(cachedResponse.key());
+      if (previous != null) {
+        sizeBytes -= previous.sizeBytes();
+      }
+      // a new key has to be used more often than every entry it pushes out, a refreshed one
+      // was already admitted
+      final int frequency = previous == null ? SKETCH.frequency(cachedResponse.key()) : -1;
+      final List<Map.Entry<String, CachedResponse>> victims = new ArrayList<>();
+      long freedBytes = 0;
+      final Iterator<Map.Entry<String, CachedResponse>> iterator =
+          ACCESS_ORDER.entrySet().iterator();
+      while (sizeBytes - freedBytes + entrySizeBytes > MAX_BYTES && iterator.hasNext()) {
+        final Map.Entry<String, CachedResponse> victim = iterator.next();
+        if (frequency >= 0 && SKETCH.frequency(victim.getKey()) >= frequency) {
+          REJECTED.increment();
+          return;
+        }
+        victims.add(victim);
+        freedBytes += victim.getValue().sizeBytes();
+      }
+      for (final Map.Entry<String, CachedResponse> victim : victims) {
+        ACCESS_ORDER.remove(victim.getKey());
+        ENTRIES.remove(victim.getKey());
+      }
+      EVICTIONS.add(victims.size());
+      sizeBytes -= freedBytes;
+
+      ACCESS_ORDER.put(cachedResponse.key(), cachedResponse);
+      ENTRIES.put(cachedResponse.key(), cachedResponse);
+      sizeBytes += entrySizeBytes;
+    } finally {
+      EVICTION_LOCK.unlock();
+    }
+    VARY_HEADERS.put(primaryKey, cachedResponse.varyHeaders());
+    STORES.increment();
+    logger.debug("Response Cached: [{}] | [{}]", cachedResponse.key(), entrySizeBytes);
+  }
+
+  // a full buffer is drained by the lookup that found it full, unless another thread is at it
+  private static void drainAccessBuffer() {
+    if (EVICTION_LOCK.tryLock()) {
+      try {
+        ACCESS_BUFFER.drain(ResponseCache::onAccess);
+      } finally {
+        EVICTION_LOCK.unlock();
+      }
+    }
+  }
+
+  // replays one lookup, called with the eviction lock held
+  private static void onAccess(final String key) {
+    SKETCH.increment(key);
+    ACCESS_ORDER.get(key);
+  }
+
+  // keys of recent lookups, striped by thread so that lookups on different event loops do not
+  // contend, a full stripe drops what does not fit, the order and counts are approximate anyway
+  private static final class AccessBuffer {
+    private static final int STRIPE_SIZE = 64;
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    private AccessBuffer() {
+      final int stripeCount =
+          Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1))
+              << 1;
+      this.stripes = new Stripe[stripeCount];
+      for (int i = 0; i < stripeCount; i++) {
+        stripes[i] = new Stripe();
+      }
+      this.mask = stripeCount - 1;
+    }
+
+    // true when the stripe is full and should be drained
+    private boolean record(final String key) {
+      final int hash = Long.hashCode(Thread.currentThread().threadId()) * 0x9e3779b9;
+      final Stripe stripe = stripes[(hash ^ (hash >>> 16)) & mask];
+      final long tail = stripe.writeCount.get();
+      final long size = tail - stripe.readCount.get();
+      if (size >= STRIPE_SIZE) {
+        return true;
+      }
+      if (stripe.writeCount.compareAndSet(tail, tail + 1)) {
+        stripe.keys.lazySet((int) (tail & (STRIPE_SIZE - 1)), key);
+      }
+      return size + 1 >= STRIPE_SIZE;
+    }
+
+    // called with the eviction lock held, the only reader
+    private void drain(final Consumer<String> onAccess) {
+      for (final Stripe stripe : stripes) {
+        long head = stripe.readCount.get();
+        final long tail = stripe.writeCount.get();
+        while (head < tail) {
+          final int index = (int) (head & (STRIPE_SIZE - 1));
+          final String key = stripe.keys.get(index);
+          // claimed but not written yet, picked up on the next drain
+          if (key == null) {
+            break;
+          }
+          stripe.keys.lazySet(index, null);
+          onAccess.accept(key);
+          head++;
+        }
+        stripe.readCount.lazySet(head);
+      }
+    }
+
+    private static final class Stripe {
+      private final AtomicReferenceArray<String> keys = new AtomicReferenceArray<>(STRIPE_SIZE);
+      private final AtomicLong writeCount = new AtomicLong(0);
+      private final AtomicLong readCount = new AtomicLong(0);
+    }
+  }
+
+  // approximate access counts of keys, 4 bits each, halved now and then so that keys that were
+  // popular a while ago do not stay ahead forever
+  private static final class FrequencySketch {
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb3e2a3c7, 0xc2b2ae35, 0x27d4eb2f};
+
+    private final int[][] counts;
+    private final int mask;
+    private final int resetAdditions;
+    private int additions = 0;
+
+    private FrequencySketch(final int width) {
+      final int powerOfTwoWidth = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+      this.counts = new int[SEEDS.length][powerOfTwoWidth];
+      this.mask = powerOfTwoWidth - 1;
+      this.resetAdditions = powerOfTwoWidth * 10;
+    }
+
+    private void increment(final String key) {
+      final int hash = key.hashCode();
+      boolean isAdded = false;
+      for (int i = 0; i < SEEDS.length; i++) {
+        final int index = index(hash, i);
+        if (counts[i][index] < MAX_COUNT) {
+          counts[i][index]++;
+          isAdded = true;
+        }
+      }
+      if (isAdded && ++additions >= resetAdditions) {
+        for (final int[] row : counts) {
+          for (int i = 0; i < row.length; i++) {
+            row[i] >>>= 1;
+          }
+        }
+        additions /= 2;
+      }
+    }
+
+    private int frequency(final String key) {
+      final int hash = key.hashCode();
+      int frequency = MAX_COUNT;
+      for (int i = 0; i < SEEDS.length; i++) {
+        frequency = Math.min(frequency, counts[i][index(hash, i)]);
+      }
+      return frequency;
+    }
+
+    private int index(final int hash, final int row) {
+      final int seeded = hash * SEEDS[row];
+      return (seeded ^ (seeded >>> 16)) & mask;
+    }
+  }
+}
@@ -1,18 +1,18 @@
 package gateway.service.proxy;
 
 import gateway.service.dtos.GatewayRequestDetails;
-import gateway.service.utils.Common;
+import gateway.service.dtos.ValidatedToken;
 import gateway.service.utils.Constants;
+import gateway.service.utils.FilterExecutor;
 import gateway.service.utils.Gateway;
-import gateway.service.utils.Routes;
+import gateway.service.utils.RouteIndex;
 import gateway.service.utils.Validate;
-import io.github.bibekaryal86.shdsvc.Secrets;
-import io.github.bibekaryal86.shdsvc.dtos.AuthToken;
-import io.github.bibekaryal86.shdsvc.dtos.HttpResponse;
 import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,113 +20,203 @@ import org.slf4j.LoggerFactory;
 public class SecurityConfig extends ChannelDuplexHandler {
   private static final Logger logger = LoggerFactory.getLogger(SecurityConfig.class);
 
+  // body chunks that arrive while the token of their request is being validated
+  private final Queue<HttpContent> pendingContents = new ArrayDeque<>();
+  private boolean isValidating = false;
+
   @Override
   public void channelRead(
       @NotNull final ChannelHandlerContext channelHandlerContext, @NotNull final Object object)
       throws Exception {
-    if (object instanceof FullHttpRequest fullHttpRequest) {
+    if (object instanceof HttpRequest httpRequest) {
       final GatewayRequestDetails gatewayRequestDetails =
           channelHandlerContext.channel().attr(Constants.GATEWAY_REQUEST_DETAILS_KEY).get();
 
       // check if uri is excluded from auth requirements or not needed to modify
-      final boolean isNoAuth =
-          Routes.getAuthExclusions().stream()
-              .anyMatch(gatewayRequestDetails.getRequestUriLessApiName()::startsWith);
-      final boolean isBasicAuth =
-          Routes.getBasicAuthApis().stream()
-              .anyMatch(gatewayRequestDetails.getRequestUri()::startsWith);
-      final boolean isCheckPermissions = Common.isCheckPermissions(fullHttpRequest);
+      final RouteIndex.RouteMatch routeMatch = gatewayRequestDetails.getRouteMatch();
+      final boolean isNoAuth = routeMatch.isNoAuth();
+      final boolean isBasicAuth = routeMatch.isBasicAuth();
+      final boolean isCheckPermissions = routeMatch.isCheckPermissions();
 
       if (isNoAuth || isBasicAuth || isCheckPermissions) {
         logger.debug(
-            "[{}] Excluded From Authorization Modification for NoAuth=[{}], BasicAuth=[{}], CheckPermissions=[{}]...",
+            "[{}] Excluded From Authorization Modification for NoAuth=[{}], BasicAuth=[{}],"
+                + " CheckPermissions=[{}]...",
             gatewayRequestDetails.getRequestId(),
             isNoAuth,
             isBasicAuth,
             isCheckPermissions);
-        super.channelRead(channelHandlerContext, fullHttpRequest);
+        super.channelRead(channelHandlerContext, httpRequest);
         return;
       }
 
       // put this here so that it can be sent as x-auth-token
-      String authHeader = fullHttpRequest.headers().get(HttpHeaderNames.AUTHORIZATION);
+      String authHeader = httpRequest.headers().get(HttpHeaderNames.AUTHORIZATION);
       if (CommonUtilities.isEmpty(authHeader)) {
-        authHeader = fullHttpRequest.headers().get(HttpHeaderNames.AUTHORIZATION.toLowerCase());
+        authHeader = httpRequest.headers().get(HttpHeaderNames.AUTHORIZATION.toLowerCase());
       }
 
-      HttpResponse<AuthToken> authTokenHttpResponse = null;
-
-      if (!gatewayRequestDetails.getApiName().equals(Constants.THIS_APP_NAME)) {
-        // check if there is auth header app id (to validate auth token)
-        final String authAppId = fullHttpRequest.headers().get(Constants.HEADER_X_AUTH_APPID);
-        final int authHeaderAppId = CommonUtilities.parseIntNoEx(authAppId);
-
-        if (authHeaderAppId <= 0) {
-          logger.error(
-              "[{}] AppId Header Missing/Invalid...", gatewayRequestDetails.getRequestId());
-          Gateway.sendErrorResponse(
-              channelHandlerContext,
-              HttpResponseStatus.UNAUTHORIZED,
-              "Missing or Malformed AppId Header");
-          return;
-        }
-
-        // check if there is an auth token
-        if (CommonUtilities.isEmpty(authHeader) || !authHeader.startsWith(Constants.BEARER_AUTH)) {
-          logger.error("[{}] Auth Header Missing/Invalid...", gatewayRequestDetails.getRequestId());
-          Gateway.sendErrorResponse(
-              channelHandlerContext,
-              HttpResponseStatus.UNAUTHORIZED,
-              "Missing or Malformed Authorization Header");
-          return;
-        }
-
-        // validate the auth token
-        authTokenHttpResponse = Validate.validateToken(authHeader, authHeaderAppId);
-        if (authTokenHttpResponse.statusCode() != 200) {
-          logger.error("[{}] Auth Token Not Valid...", gatewayRequestDetails.getRequestId());
-          Gateway.sendErrorResponse(
-              channelHandlerContext,
-              HttpResponseStatus.UNAUTHORIZED,
-              "Invalid Authorization Header");
-          return;
-        }
+      if (gatewayRequestDetails.getApiName().equals(Constants.THIS_APP_NAME)) {
+        authorize(channelHandlerContext, httpRequest, gatewayRequestDetails, authHeader, null);
+        return;
       }
 
-      // update request with basic auth after token validated
-      // do not do it for authsvc, because that expects the bearer token
-      if (!gatewayRequestDetails.getApiName().equals(Constants.API_NAME_AUTH_SERVICE)) {
-        final String appUsername =
-            Routes.getAuthApps().get(gatewayRequestDetails.getApiName() + Constants.AUTH_APPS_USR);
-        final String appPassword =
-            Routes.getAuthApps().get(gatewayRequestDetails.getApiName() + Constants.AUTH_APPS_PWD);
-
-        if (CommonUtilities.isEmpty(appUsername) || CommonUtilities.isEmpty(appPassword)) {
-          logger.error("[{}] Auth Credentials Not Found...", gatewayRequestDetails.getRequestId());
-          Gateway.sendErrorResponse(
-              channelHandlerContext,
-              HttpResponseStatus.NETWORK_AUTHENTICATION_REQUIRED,
-              "Missing Auth Credentials");
-          return;
-        }
-
-        final String xAuthToken =
-            authTokenHttpResponse == null
-                ? ""
-                : Secrets.encodeAndSign(authTokenHttpResponse.responseBody());
-
-        fullHttpRequest
-            .headers()
-            .set(
-                HttpHeaderNames.AUTHORIZATION,
-                CommonUtilities.getBasicAuth(appUsername, appPassword))
-            .set(Constants.HEADER_X_AUTH_HEADER, authHeader)
-            .set(Constants.HEADER_X_AUTH_TOKEN, xAuthToken);
-
-        logger.debug("[{}] Auth Header Updated...", gatewayRequestDetails.getRequestId());
+      // check if there is auth header app id (to validate auth token)
+      final String authAppId = httpRequest.headers().get(Constants.HEADER_X_AUTH_APPID);
+      final int authHeaderAppId = CommonUtilities.parseIntNoEx(authAppId);
+
+      if (authHeaderAppId <= 0) {
+        logger.error("[{}] AppId Header Missing/Invalid...", gatewayRequestDetails.getRequestId());
+        Gateway.sendErrorResponse(
+            channelHandlerContext,
+            HttpResponseStatus.UNAUTHORIZED,
+            "Missing or Malformed AppId Header");
+        return;
       }
+
+      // check if there is an auth token
+      if (CommonUtilities.isEmpty(authHeader) || !authHeader.startsWith(Constants.BEARER_AUTH)) {
+        logger.error("[{}] Auth Header Missing/Invalid...", gatewayRequestDetails.getRequestId());
+        Gateway.sendErrorResponse(
+            channelHandlerContext,
+            HttpResponseStatus.UNAUTHORIZED,
+            "Missing or Malformed Authorization Header");
+        return;
+      }
+
+      // validate the auth token, the request continues on the event loop once it completes
+      validateToken(
+          channelHandlerContext, httpRequest, gatewayRequestDetails, authHeader, authHeaderAppId);
+      return;
+    }
+
+    if (object instanceof HttpContent httpContent && isValidating) {
+      pendingContents.add(httpContent);
+      return;
     }
 
     super.channelRead(channelHandlerContext, object);
   }
+
+  @Override
+  public void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    releasePendingContents();
+    super.channelInactive(channelHandlerContext);
+  }
+
+  private void validateToken(
+      final ChannelHandlerContext channelHandlerContext,
+      final HttpRequest httpRequest,
+      final GatewayRequestDetails gatewayRequestDetails,
+      final String authHeader,
+      final int authHeaderAppId) {
+    // held even if reads are already paused for another reason, so that giving that one back
+    // does not let the rest of the body pile up in pending contents
+    isValidating = true;
+    ReadPause.pause(channelHandlerContext.channel());
+
+    // cache lookup, local jwt verification and signing of x-auth-token may run off the event loop
+    FilterExecutor.execute(
+        channelHandlerContext,
+        () -> Validate.validateTokenAsync(authHeader, authHeaderAppId),
+        (validatedToken, throwable) -> {
+          // resumed only once the request and its pending contents have moved on, in order
+          try {
+            onTokenValidated(
+                channelHandlerContext,
+                httpRequest,
+                gatewayRequestDetails,
+                authHeader,
+                validatedToken,
+                throwable);
+          } finally {
+            ReadPause.resume(channelHandlerContext.channel());
+          }
+        });
+  }
+
+  private void onTokenValidated(
+      final ChannelHandlerContext channelHandlerContext,
+      final HttpRequest httpRequest,
+      final GatewayRequestDetails gatewayRequestDetails,
+      final String authHeader,
+      final ValidatedToken validatedToken,
+      final Throwable throwable) {
+    isValidating = false;
+    if (!channelHandlerContext.channel().isActive()) {
+      releasePendingContents();
+      return;
+    }
+
+    if (throwable != null) {
+      logger.error(
+          "[{}] Auth Token Validation Error...", gatewayRequestDetails.getRequestId(), throwable);
+      releasePendingContents();
+      Gateway.sendErrorResponse(
+          channelHandlerContext,
+          HttpResponseStatus.SERVICE_UNAVAILABLE,
+          "Authorization Validation Unavailable");
+      return;
+    }
+
+    if (validatedToken == null) {
+      logger.error("[{}] Auth Token Not Valid...", gatewayRequestDetails.getRequestId());
+      releasePendingContents();
+      Gateway.sendErrorResponse(
+          channelHandlerContext, HttpResponseStatus.UNAUTHORIZED, "Invalid Authorization Header");
+      return;
+    }
+
+    authorize(
+        channelHandlerContext, httpRequest, gatewayRequestDetails, authHeader, validatedToken);
+  }
+
+  private void authorize(
+      final ChannelHandlerContext channelHandlerContext,
+      final HttpRequest httpRequest,
+      final GatewayRequestDetails gatewayRequestDetails,
+      final String authHeader,
+      final ValidatedToken validatedToken) {
+    // update request with basic auth after token validated
+    // do not do it for authsvc, because that expects the bearer token
+    if (!gatewayRequestDetails.getApiName().equals(Constants.API_NAME_AUTH_SERVICE)) {
+      final String appAuthHeader =
+          gatewayRequestDetails
+              .getRouteSnapshot()
+              .getAuthHeader(gatewayRequestDetails.getApiName());
+
+      if (appAuthHeader == null) {
+        logger.error("[{}] Auth Credentials Not Found...", gatewayRequestDetails.getRequestId());
+        releasePendingContents();
+        Gateway.sendErrorResponse(
+            channelHandlerContext,
+            HttpResponseStatus.NETWORK_AUTHENTICATION_REQUIRED,
+            "Missing Auth Credentials");
+        return;
+      }
+
+      final String xAuthToken = validatedToken == null ? "" : validatedToken.getXAuthToken();
+
+      httpRequest
+          .headers()
+          .set(HttpHeaderNames.AUTHORIZATION, appAuthHeader)
+          .set(Constants.HEADER_X_AUTH_HEADER, authHeader)
+          .set(Constants.HEADER_X_AUTH_TOKEN, xAuthToken);
+
+      logger.debug("[{}] Auth Header Updated...", gatewayRequestDetails.getRequestId());
+    }
+
+    channelHandlerContext.fireChannelRead(httpRequest);
+    HttpContent httpContent;
+    while ((httpContent = pendingContents.poll()) != null) {
+      channelHandlerContext.fireChannelRead(httpContent);
+    }
+  }
+
+  private void releasePendingContents() {
+    HttpContent httpContent;
+    while ((httpContent = pendingContents.poll()) != null) {
+      httpContent.release();
+    }
+  }
 }
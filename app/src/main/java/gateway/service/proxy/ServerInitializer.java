@@ -0,0 +1,221 @@
+package gateway.service.proxy;
+
+import gateway.service.utils.Common;
+import gateway.service.utils.Constants;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AsciiString;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+// downstream pipeline of one connection, http/1.1 only or, when http/2 is on, h2 negotiated by
+// alpn with tls or h2c by prior knowledge or upgrade without, every http/2 stream runs through
+// its own request handlers
+public class ServerInitializer extends ChannelInitializer<SocketChannel> {
+  private final int keepAliveMaxRequests;
+  private final int keepAliveIdleSeconds;
+  private final boolean isHttp2;
+  private final int http2MaxConcurrentStreams;
+
+  private final ChannelInitializer<Http2StreamChannel> http2StreamInitializer =
+      new ChannelInitializer<>() {
+        @Override
+        protected void initChannel(@NotNull final Http2StreamChannel http2StreamChannel) {
+          http2StreamChannel
+              .pipeline()
+              .addLast(new Http2StreamFrameToHttpObjectCodec(true))
+              .addLast(new FullRequestSplitter())
+              .addLast(new HttpServerExpectContinueHandler())
+              .addLast(Common.newCorsHandler())
+              .addLast(new ServerLogging())
+              .addLast(new SecurityConfig())
+              .addLast(new ProxyHandler());
+        }
+      };
+
+  public ServerInitializer(
+      final int keepAliveMaxRequests,
+      final int keepAliveIdleSeconds,
+      final boolean isHttp2,
+      final int http2MaxConcurrentStreams) {
+    this.keepAliveMaxRequests = keepAliveMaxRequests;
+    this.keepAliveIdleSeconds = keepAliveIdleSeconds;
+    this.isHttp2 = isHttp2;
+    this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+  }
+
+  @Override
+  protected void initChannel(@NotNull final SocketChannel socketChannel) {
+    final ChannelPipeline pipeline = socketChannel.pipeline();
+    // ahead of the codecs, so that it times http/1.1 and http/2 connections alike
+    pipeline.addLast(new IdleStateHandler(0, 0, keepAliveIdleSeconds));
+    if (ServerTls.isEnabled()) {
+      // protocol is known after the handshake, h2 when alpn picked it, http/1.1 otherwise
+      pipeline
+          .addLast(ServerTls.newHandler(socketChannel.alloc()))
+          .addLast(new ServerTls.HandshakeStats())
+          .addLast(
+              new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                @Override
+                protected void configurePipeline(
+                    final ChannelHandlerContext channelHandlerContext, final String protocol) {
+                  if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                    addHttp2Handlers(channelHandlerContext.pipeline());
+                  } else {
+                    channelHandlerContext.pipeline().addLast(new HttpServerCodec());
+                    addHttp1Handlers(channelHandlerContext.pipeline());
+                  }
+                }
+              });
+      return;
+    }
+    if (!isHttp2) {
+      pipeline.addLast(new HttpServerCodec());
+      addHttp1Handlers(pipeline);
+      return;
+    }
+
+    final HttpServerCodec httpServerCodec = new HttpServerCodec();
+    final HttpServerUpgradeHandler httpServerUpgradeHandler =
+        new HttpServerUpgradeHandler(
+            httpServerCodec,
+            protocol ->
+                AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)
+                    ? new Http2ServerUpgradeCodec(
+                        newHttp2FrameCodec(), newHttp2MultiplexHandler(), new Http2IdleHandler())
+                    : null,
+            Constants.SERVER_HTTP2_UPGRADE_MAX_CONTENT_LENGTH);
+    pipeline
+        .addLast(
+            new CleartextHttp2ServerUpgradeHandler(
+                httpServerCodec,
+                httpServerUpgradeHandler,
+                new ChannelInitializer<>() {
+                  @Override
+                  protected void initChannel(@NotNull final Channel channel) {
+                    addHttp2Handlers(channel.pipeline());
+                  }
+                }))
+        .addLast(new Http1Fallback());
+  }
+
+  private void addHttp1Handlers(final ChannelPipeline pipeline) {
+    pipeline
+        .addLast(new HttpServerExpectContinueHandler())
+        .addLast(new KeepAliveHandler(keepAliveMaxRequests))
+        .addLast(Common.newCorsHandler())
+        .addLast(new ServerLogging())
+        .addLast(new SecurityConfig())
+        .addLast(new ProxyHandler());
+  }
+
+  private void addHttp2Handlers(final ChannelPipeline pipeline) {
+    pipeline
+        .addLast(newHttp2FrameCodec())
+        .addLast(newHttp2MultiplexHandler())
+        .addLast(new Http2IdleHandler());
+  }
+
+  private Http2FrameCodec newHttp2FrameCodec() {
+    return Http2FrameCodecBuilder.forServer()
+        .initialSettings(
+            Http2Settings.defaultSettings().maxConcurrentStreams(http2MaxConcurrentStreams))
+        .build();
+  }
+
+  // the stream upgraded from http/1.1 (stream 1) gets the same handlers as any other stream
+  private Http2MultiplexHandler newHttp2MultiplexHandler() {
+    return new Http2MultiplexHandler(http2StreamInitializer, http2StreamInitializer);
+  }
+
+  // neither prior knowledge nor an upgrade, the rest of the connection is plain http/1.1
+  private final class Http1Fallback extends ChannelInboundHandlerAdapter {
+    @Override
+    public void channelRead(
+        @NotNull final ChannelHandlerContext channelHandlerContext, @NotNull final Object object)
+        throws Exception {
+      if (object instanceof HttpMessage) {
+        addHttp1Handlers(channelHandlerContext.pipeline());
+        channelHandlerContext.pipeline().remove(this);
+      }
+      channelHandlerContext.fireChannelRead(object);
+    }
+
+    @Override
+    public void userEventTriggered(
+        final ChannelHandlerContext channelHandlerContext, final Object event) throws Exception {
+      if (event instanceof IdleStateEvent) {
+        // connected but never sent a request
+        channelHandlerContext.close();
+        return;
+      }
+      if (event instanceof CleartextHttp2ServerUpgradeHandler.PriorKnowledgeUpgradeEvent
+          || event instanceof HttpServerUpgradeHandler.UpgradeEvent) {
+        channelHandlerContext.pipeline().remove(this);
+      }
+      super.userEventTriggered(channelHandlerContext, event);
+    }
+  }
+
+  // idle http/2 connections are closed (with a goaway) only once none of their streams is open
+  private static final class Http2IdleHandler extends ChannelInboundHandlerAdapter {
+    @Override
+    public void userEventTriggered(
+        final ChannelHandlerContext channelHandlerContext, final Object event) throws Exception {
+      if (event instanceof IdleStateEvent) {
+        final Http2FrameCodec http2FrameCodec =
+            channelHandlerContext.pipeline().get(Http2FrameCodec.class);
+        if (http2FrameCodec == null || http2FrameCodec.connection().numActiveStreams() == 0) {
+          channelHandlerContext.close();
+        }
+        return;
+      }
+      super.userEventTriggered(channelHandlerContext, event);
+    }
+  }
+
+  // an http/2 request without a body arrives as one full request, the request handlers expect
+  // the request and its content separately, the way the http/1.1 codec reads them
+  private static final class FullRequestSplitter extends MessageToMessageDecoder<FullHttpRequest> {
+    @Override
+    protected void decode(
+        final ChannelHandlerContext channelHandlerContext,
+        final FullHttpRequest fullHttpRequest,
+        final List<Object> out) {
+      out.add(
+          new DefaultHttpRequest(
+              fullHttpRequest.protocolVersion(),
+              fullHttpRequest.method(),
+              fullHttpRequest.uri(),
+              fullHttpRequest.headers()));
+      out.add(
+          new DefaultLastHttpContent(
+              fullHttpRequest.content().retain(), fullHttpRequest.trailingHeaders()));
+    }
+  }
+}
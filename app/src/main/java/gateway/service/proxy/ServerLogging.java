@@ -4,6 +4,8 @@ import gateway.service.dtos.GatewayRequestDetails;
 import gateway.service.utils.Common;
 import gateway.service.utils.Constants;
 import gateway.service.utils.Gateway;
+import gateway.service.utils.RouteIndex;
+import gateway.service.utils.RouteSnapshot;
 import gateway.service.utils.Routes;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -20,9 +22,9 @@ public class ServerLogging extends ChannelDuplexHandler {
   public void channelRead(
       @NotNull final ChannelHandlerContext channelHandlerContext, @NotNull final Object object)
       throws Exception {
-    if (object instanceof FullHttpRequest fullHttpRequest) {
+    if (object instanceof HttpRequest httpRequest) {
       final GatewayRequestDetails gatewayRequestDetails =
-          extractGatewayRequestDetails(channelHandlerContext, fullHttpRequest);
+          extractGatewayRequestDetails(channelHandlerContext, httpRequest);
 
       if (gatewayRequestDetails == null) {
         Gateway.sendErrorResponse(
@@ -33,7 +35,7 @@ public class ServerLogging extends ChannelDuplexHandler {
       }
 
       final String requestContentLength =
-          fullHttpRequest.headers().get(HttpHeaderNames.CONTENT_LENGTH, "0");
+          httpRequest.headers().get(HttpHeaderNames.CONTENT_LENGTH, "0");
       logger.info(
           "[{}] Request IN: [{}], [{}]",
           gatewayRequestDetails.getRequestId(),
@@ -55,35 +57,39 @@ public class ServerLogging extends ChannelDuplexHandler {
       final Object object,
       final ChannelPromise channelPromise)
       throws Exception {
-    if (object instanceof FullHttpResponse fullHttpResponse) {
+    if (object instanceof HttpResponse httpResponse) {
       final String responseContentLength =
-          fullHttpResponse.headers().get(HttpHeaderNames.CONTENT_LENGTH, "0");
-      final HttpResponseStatus responseStatus = fullHttpResponse.status();
+          httpResponse.headers().get(HttpHeaderNames.CONTENT_LENGTH, "0");
+      final HttpResponseStatus responseStatus = httpResponse.status();
       GatewayRequestDetails gatewayRequestDetails =
           channelHandlerContext.channel().attr(Constants.GATEWAY_REQUEST_DETAILS_KEY).get();
+      final long startTime =
+          gatewayRequestDetails == null ? System.nanoTime() : gatewayRequestDetails.getStartTime();
       logger.info(
           "[{}] Response OUT: [{}], [{}] in [{}s]",
           Common.getRequestId(gatewayRequestDetails),
           responseStatus,
           responseContentLength,
-          String.format("%.2f", (System.nanoTime() - gatewayRequestDetails.getStartTime()) / 1e9d));
+          String.format("%.2f", (System.nanoTime() - startTime) / 1e9d));
     }
     super.write(channelHandlerContext, object, channelPromise);
   }
 
   private GatewayRequestDetails extractGatewayRequestDetails(
-      final ChannelHandlerContext channelHandlerContext, final FullHttpRequest fullHttpRequest) {
+      final ChannelHandlerContext channelHandlerContext, final HttpRequest httpRequest) {
     final long startTime = System.nanoTime();
-    final String requestUri = fullHttpRequest.uri();
-    final HttpMethod requestMethod = fullHttpRequest.method();
+    final String requestUri = httpRequest.uri();
+    final HttpMethod requestMethod = httpRequest.method();
     final String apiName = extractApiName(requestUri);
     final String clientId = extractClientId(channelHandlerContext);
-    final String targetBaseUrl = Routes.getTargetBaseUrl(apiName);
-    if (targetBaseUrl == null) {
+    // route, auth mode and permission check are all decided here, once per request
+    final RouteSnapshot routeSnapshot = Routes.getSnapshot();
+    final RouteIndex.RouteMatch routeMatch = routeSnapshot.routeIndex().match(apiName, requestUri);
+    if (routeMatch == null) {
       return null;
     }
     return new GatewayRequestDetails(
-        requestMethod, requestUri, apiName, clientId, targetBaseUrl, startTime);
+        requestMethod, requestUri, clientId, routeSnapshot, routeMatch, startTime);
   }
 
   private String extractClientId(final ChannelHandlerContext channelHandlerContext) {
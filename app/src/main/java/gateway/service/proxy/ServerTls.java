@@ -0,0 +1,270 @@
+package gateway.service.proxy;
+
+import gateway.service.utils.Constants;
+import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslServerSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// tls termination, on when a pem certificate and key are configured, openssl (netty-tcnative)
+// when it is on the classpath and jdk otherwise, the files are reloaded when they change
+public class ServerTls {
+  private static final Logger logger = LoggerFactory.getLogger(ServerTls.class);
+
+  private static final String CERT_FILE =
+      CommonUtilities.getSystemEnvProperty(Constants.ENV_SERVER_TLS_CERT_FILE, "");
+  private static final String KEY_FILE =
+      CommonUtilities.getSystemEnvProperty(Constants.ENV_SERVER_TLS_KEY_FILE, "");
+  private static final String KEY_PASSWORD =
+      CommonUtilities.getSystemEnvProperty(Constants.ENV_SERVER_TLS_KEY_PASSWORD, "");
+  private static final SslProvider SSL_PROVIDER =
+      OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+
+  private static final LongAdder HANDSHAKES = new LongAdder();
+  private static final LongAdder HANDSHAKE_FAILURES = new LongAdder();
+  private static final LongAdder RESUMED = new LongAdder();
+  private static final LongAdder RELOADS = new LongAdder();
+  private static final LongAdder RELOAD_FAILURES = new LongAdder();
+
+  private static final ScheduledExecutorService RELOAD_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "tls-reload");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  // resumption is only exposed by the openssl engine, and not publicly, with the jdk engine a
+  // session id already seen on an earlier handshake is the sign of it
+  private static final MethodHandle IS_SESSION_REUSED = getIsSessionReused();
+  private static final Map<String, Boolean> SEEN_SESSION_IDS =
+      Collections.synchronizedMap(
+          new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+              return size() > Constants.SERVER_TLS_SESSION_CACHE_SIZE;
+            }
+          });
+
+  private static volatile SslContext sslContext = null;
+  private static boolean isHttp2 = false;
+  private static long certFileModified = 0;
+  private static long keyFileModified = 0;
+  // openssl only, kept across reloads so that tickets issued before a reload still resume
+  private static OpenSslSessionTicketKey[] ticketKeys = null;
+  private static long ticketKeysRotatedMillis = 0;
+
+  public static boolean isConfigured() {
+    return !CommonUtilities.isEmpty(CERT_FILE) && !CommonUtilities.isEmpty(KEY_FILE);
+  }
+
+  public static boolean isEnabled() {
+    return sslContext != null;
+  }
+
+  // a bad certificate at startup fails the startup, a bad one on reload keeps the current one
+  public static synchronized void init(final boolean isHttp2) throws Exception {
+    if (!isConfigured() || sslContext != null) {
+      return;
+    }
+    ServerTls.isHttp2 = isHttp2;
+    load();
+    RELOAD_EXECUTOR.scheduleWithFixedDelay(
+        ServerTls::reload,
+        Constants.SERVER_TLS_RELOAD_INTERVAL_SECONDS,
+        Constants.SERVER_TLS_RELOAD_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+    logger.info("Server Tls Enabled: [{}] | [{}]", SSL_PROVIDER, CERT_FILE);
+  }
+
+  // new connections pick up a reloaded certificate, open ones keep theirs
+  public static SslHandler newHandler(final ByteBufAllocator byteBufAllocator) {
+    final SslHandler sslHandler = sslContext.newHandler(byteBufAllocator);
+    sslHandler.setHandshakeTimeoutMillis(Constants.SERVER_TLS_HANDSHAKE_TIMEOUT_MILLIS);
+    return sslHandler;
+  }
+
+  public static Map<String, Object> getStats() {
+    final long handshakes = HANDSHAKES.sum();
+    final long resumed = RESUMED.sum();
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("enabled", isEnabled());
+    stats.put("provider", isEnabled() ? SSL_PROVIDER : null);
+    stats.put("handshakes", handshakes);
+    stats.put("handshakeFailures", HANDSHAKE_FAILURES.sum());
+    stats.put("resumed", resumed);
+    stats.put("resumptionRate", handshakes == 0 ? 0.0 : (double) resumed / handshakes);
+    stats.put("reloads", RELOADS.sum());
+    stats.put("reloadFailures", RELOAD_FAILURES.sum());
+    return stats;
+  }
+
+  private static synchronized void load() throws Exception {
+    final File certFile = new File(CERT_FILE);
+    final File keyFile = new File(KEY_FILE);
+    final long newCertFileModified = certFile.lastModified();
+    final long newKeyFileModified = keyFile.lastModified();
+
+    final SslContextBuilder sslContextBuilder =
+        SslContextBuilder.forServer(
+                certFile, keyFile, CommonUtilities.isEmpty(KEY_PASSWORD) ? null : KEY_PASSWORD)
+            .sslProvider(SSL_PROVIDER)
+            .sessionCacheSize(Constants.SERVER_TLS_SESSION_CACHE_SIZE)
+            .sessionTimeout(Constants.SERVER_TLS_SESSION_TIMEOUT_SECONDS);
+    if (isHttp2) {
+      // h2 is negotiated with alpn and requires the ciphers allowed by rfc 7540
+      sslContextBuilder
+          .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+          .applicationProtocolConfig(
+              new ApplicationProtocolConfig(
+                  ApplicationProtocolConfig.Protocol.ALPN,
+                  ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                  ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                  ApplicationProtocolNames.HTTP_2,
+                  ApplicationProtocolNames.HTTP_1_1));
+    }
+    final SslContext newSslContext = sslContextBuilder.build();
+    if (SSL_PROVIDER == SslProvider.OPENSSL) {
+      setTicketKeys(newSslContext, false);
+    }
+
+    sslContext = newSslContext;
+    certFileModified = newCertFileModified;
+    keyFileModified = newKeyFileModified;
+  }
+
+  private static void reload() {
+    try {
+      if (SSL_PROVIDER == SslProvider.OPENSSL
+          && System.currentTimeMillis() - ticketKeysRotatedMillis
+              >= TimeUnit.HOURS.toMillis(Constants.SERVER_TLS_TICKET_KEY_ROTATE_HOURS)) {
+        setTicketKeys(sslContext, true);
+      }
+      if (new File(CERT_FILE).lastModified() == certFileModified
+          && new File(KEY_FILE).lastModified() == keyFileModified) {
+        return;
+      }
+      load();
+      RELOADS.increment();
+      logger.info("Server Tls Certificate Reloaded: [{}]", CERT_FILE);
+    } catch (Exception ex) {
+      RELOAD_FAILURES.increment();
+      logger.error("Server Tls Certificate Reload Error: [{}]", CERT_FILE, ex);
+    }
+  }
+
+  // new tickets are issued with the newest key, the previous key still decrypts older ones
+  private static synchronized void setTicketKeys(
+      final SslContext targetSslContext, final boolean isRotate) {
+    if (ticketKeys == null || isRotate) {
+      final OpenSslSessionTicketKey newTicketKey = newTicketKey();
+      ticketKeys =
+          ticketKeys == null
+              ? new OpenSslSessionTicketKey[] {newTicketKey}
+              : new OpenSslSessionTicketKey[] {newTicketKey, ticketKeys[0]};
+      ticketKeysRotatedMillis = System.currentTimeMillis();
+    }
+    if (targetSslContext.sessionContext() instanceof OpenSslServerSessionContext sessionContext) {
+      sessionContext.setTicketKeys(ticketKeys);
+    }
+  }
+
+  private static OpenSslSessionTicketKey newTicketKey() {
+    final SecureRandom secureRandom = new SecureRandom();
+    final byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+    final byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+    final byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+    secureRandom.nextBytes(name);
+    secureRandom.nextBytes(hmacKey);
+    secureRandom.nextBytes(aesKey);
+    return new OpenSslSessionTicketKey(name, hmacKey, aesKey);
+  }
+
+  private static MethodHandle getIsSessionReused() {
+    if (SSL_PROVIDER != SslProvider.OPENSSL) {
+      return null;
+    }
+    try {
+      final Method method =
+          ReferenceCountedOpenSslEngine.class.getDeclaredMethod("isSessionReused");
+      method.setAccessible(true);
+      return MethodHandles.lookup()
+          .unreflect(method)
+          .asType(MethodType.methodType(boolean.class, SSLEngine.class));
+    } catch (ReflectiveOperationException | RuntimeException | LinkageError ex) {
+      logger.info("Server Tls Session Reused Flag Not Available, Tracking Session Ids...");
+      return null;
+    }
+  }
+
+  private static boolean isResumed(final SSLEngine sslEngine) {
+    if (IS_SESSION_REUSED != null) {
+      try {
+        return (boolean) IS_SESSION_REUSED.invokeExact(sslEngine);
+      } catch (Throwable ex) {
+        logger.debug("Server Tls Session Reused Flag Error...", ex);
+      }
+    }
+    final byte[] sessionId = sslEngine.getSession().getId();
+    if (sessionId == null || sessionId.length == 0) {
+      return false;
+    }
+    return SEEN_SESSION_IDS.put(HexFormat.of().formatHex(sessionId), Boolean.TRUE) != null;
+  }
+
+  // counts handshakes of one connection, then gets out of the way
+  static final class HandshakeStats extends ChannelInboundHandlerAdapter {
+
+    @Override
+    public void userEventTriggered(
+        final ChannelHandlerContext channelHandlerContext, final Object event) throws Exception {
+      if (event instanceof SslHandshakeCompletionEvent handshakeCompletionEvent) {
+        if (handshakeCompletionEvent.isSuccess()) {
+          HANDSHAKES.increment();
+          // a resumed session, from the cache or a ticket, skipped the full handshake
+          if (isResumed(channelHandlerContext.pipeline().get(SslHandler.class).engine())) {
+            RESUMED.increment();
+          }
+        } else {
+          HANDSHAKE_FAILURES.increment();
+          logger.debug(
+              "Server Tls Handshake Error: [{}]",
+              channelHandlerContext.channel(),
+              handshakeCompletionEvent.cause());
+        }
+        channelHandlerContext.pipeline().remove(this);
+      }
+      super.userEventTriggered(channelHandlerContext, event);
+    }
+  }
+}
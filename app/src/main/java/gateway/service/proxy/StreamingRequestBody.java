@@ -0,0 +1,151 @@
+package gateway.service.proxy;
+
+import gateway.service.utils.Constants;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+// request body fed with netty http content chunks as they arrive and written to upstream by the
+// okhttp call thread, downstream reads are paused while too many bytes are waiting upstream
+public class StreamingRequestBody extends RequestBody {
+  private static final Object END_OF_BODY = new Object();
+  private static final Object ABORTED = new Object();
+
+  private final Channel channel;
+  private final MediaType mediaType;
+  private final long contentLength;
+  private final BlockingQueue<Object> chunks = new LinkedBlockingQueue<>();
+  private final AtomicLong queuedBytes = new AtomicLong(0);
+  private volatile boolean isAborted = false;
+  // one of the pauses on downstream reads, see ReadPause
+  private final AtomicBoolean isReadPaused = new AtomicBoolean(false);
+  private volatile long writtenBytes = 0;
+
+  public StreamingRequestBody(
+      final Channel channel, final MediaType mediaType, final long contentLength) {
+    this.channel = channel;
+    this.mediaType = mediaType;
+    this.contentLength = contentLength;
+  }
+
+  // called on the event loop, takes ownership of the buffer
+  public void offer(final ByteBuf content) {
+    if (isAborted) {
+      content.release();
+      return;
+    }
+    if (!content.isReadable()) {
+      content.release();
+      return;
+    }
+    final long queued = queuedBytes.addAndGet(content.readableBytes());
+    chunks.add(content);
+    if (isAborted) {
+      // aborted by the call thread meanwhile, nothing is going to read it anymore
+      abort();
+      return;
+    }
+    if (queued > Constants.PROXY_BODY_HIGH_WATER_MARK && isReadPaused.compareAndSet(false, true)) {
+      ReadPause.pause(channel);
+    }
+  }
+
+  public void complete() {
+    chunks.add(END_OF_BODY);
+  }
+
+  // body bytes written to upstream so far
+  public long getWrittenBytes() {
+    return writtenBytes;
+  }
+
+  public void abort() {
+    isAborted = true;
+    releaseChunks();
+    chunks.add(ABORTED);
+    if (isReadPaused.compareAndSet(true, false)) {
+      ReadPause.resume(channel);
+    }
+  }
+
+  @Nullable
+  @Override
+  public MediaType contentType() {
+    return mediaType;
+  }
+
+  @Override
+  public long contentLength() {
+    return contentLength;
+  }
+
+  @Override
+  public boolean isOneShot() {
+    return true;
+  }
+
+  @Override
+  public void writeTo(@NotNull final BufferedSink bufferedSink) throws IOException {
+    while (true) {
+      final Object chunk;
+      try {
+        chunk = chunks.poll(Constants.PROXY_BODY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Request Body Interrupted...");
+      }
+
+      if (chunk == END_OF_BODY) {
+        return;
+      }
+      if (chunk == null || chunk == ABORTED) {
+        abort();
+        throw new IOException(
+            chunk == null ? "Request Body Read Timeout..." : "Request Body Aborted...");
+      }
+
+      final ByteBuf content = (ByteBuf) chunk;
+      final int readableBytes = content.readableBytes();
+      try {
+        for (final ByteBuffer byteBuffer : content.nioBuffers()) {
+          while (byteBuffer.hasRemaining()) {
+            bufferedSink.write(byteBuffer);
+          }
+        }
+        writtenBytes += readableBytes;
+      } finally {
+        content.release();
+        resumeReadIfDrained(readableBytes);
+      }
+    }
+  }
+
+  private void resumeReadIfDrained(final int writtenBytes) {
+    // resumed on the event loop, other pauses held on the channel still keep it paused
+    if (queuedBytes.addAndGet(-writtenBytes) < Constants.PROXY_BODY_LOW_WATER_MARK
+        && isReadPaused.compareAndSet(true, false)) {
+      ReadPause.resume(channel);
+    }
+  }
+
+  private void releaseChunks() {
+    Object chunk;
+    while ((chunk = chunks.poll()) != null) {
+      if (chunk instanceof ByteBuf content) {
+        content.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,304 @@
+package gateway.service.proxy;
+
+import gateway.service.dtos.RouteConfig;
+import gateway.service.utils.Constants;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// the upstream endpoints of one route, eg: http://host-a:8080,http://host-b:8080, chosen by
+// power of two choices on requests in flight, endpoints failing in a row are ejected for a while
+// and, when the route has a health path, endpoints failing active probes are skipped
+public class UpstreamGroup {
+  private static final Logger logger = LoggerFactory.getLogger(UpstreamGroup.class);
+
+  private static final Map<String, UpstreamGroup> UPSTREAM_GROUPS = new ConcurrentHashMap<>();
+
+  private static final OkHttpClient HEALTH_CLIENT =
+      new OkHttpClient.Builder()
+          .connectTimeout(Constants.UPSTREAM_HEALTH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+          .readTimeout(Constants.UPSTREAM_HEALTH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+          .followRedirects(false)
+          .build();
+  private static final ScheduledExecutorService HEALTH_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "upstream-health");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  static {
+    HEALTH_EXECUTOR.scheduleWithFixedDelay(
+        UpstreamGroup::probeAll,
+        Constants.UPSTREAM_HEALTH_INTERVAL_SECONDS,
+        Constants.UPSTREAM_HEALTH_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  private final String targetBaseUrl;
+  private final String healthPath;
+  private final List<Endpoint> endpoints;
+
+  private UpstreamGroup(
+      final String targetBaseUrl, final String healthPath, final UpstreamGroup previous) {
+    this.targetBaseUrl = targetBaseUrl;
+    this.healthPath = healthPath;
+    final List<Endpoint> newEndpoints = new ArrayList<>();
+    for (final String baseUrl : targetBaseUrl.split(",")) {
+      if (!baseUrl.isBlank()) {
+        // endpoints still configured keep their state across routes refreshes
+        final Endpoint existing = previous == null ? null : previous.getEndpoint(baseUrl.trim());
+        newEndpoints.add(existing == null ? new Endpoint(baseUrl.trim()) : existing);
+      }
+    }
+    this.endpoints = List.copyOf(newEndpoints);
+  }
+
+  public static UpstreamGroup getUpstreamGroup(
+      final RouteConfig routeConfig, final String targetBaseUrl) {
+    final String apiName = routeConfig.getApiName();
+    final UpstreamGroup upstreamGroup = UPSTREAM_GROUPS.get(apiName);
+    if (upstreamGroup != null && upstreamGroup.isSame(routeConfig, targetBaseUrl)) {
+      return upstreamGroup;
+    }
+    // first call for the route, or its endpoints changed in a routes refresh
+    return UPSTREAM_GROUPS.compute(
+        apiName,
+        (key, existing) ->
+            existing != null && existing.isSame(routeConfig, targetBaseUrl)
+                ? existing
+                : new UpstreamGroup(targetBaseUrl, routeConfig.getHealthPath(), existing));
+  }
+
+  // groups of routes gone in a routes refresh are not probed or reported anymore
+  public static void retainRoutes(final Set<String> apiNames) {
+    UPSTREAM_GROUPS
+        .keySet()
+        .removeIf(
+            apiName -> {
+              if (apiNames.contains(apiName)) {
+                return false;
+              }
+              logger.info("Removing Upstream Group: [{}]", apiName);
+              return true;
+            });
+  }
+
+  public static Map<String, Object> getStats() {
+    final Map<String, Object> stats = new TreeMap<>();
+    UPSTREAM_GROUPS.forEach(
+        (apiName, upstreamGroup) -> {
+          final Map<String, Object> endpointStats = new LinkedHashMap<>();
+          upstreamGroup.endpoints.forEach(
+              endpoint -> endpointStats.put(endpoint.baseUrl, endpoint.stats()));
+          stats.put(apiName, endpointStats);
+        });
+    return stats;
+  }
+
+  // first endpoint, only to build a valid request before an endpoint is chosen for it
+  public String getFirstBaseUrl() {
+    return endpoints.isEmpty() ? targetBaseUrl : endpoints.getFirst().baseUrl;
+  }
+
+  // endpoints already tried for the request are avoided as long as there are others
+  Endpoint choose(final Set<Endpoint> tried) {
+    final long nowNanos = System.nanoTime();
+    List<Endpoint> candidates =
+        endpoints.stream()
+            .filter(endpoint -> !tried.contains(endpoint) && endpoint.isAvailable(nowNanos))
+            .toList();
+    if (candidates.isEmpty()) {
+      candidates = endpoints.stream().filter(endpoint -> !tried.contains(endpoint)).toList();
+    }
+    if (candidates.isEmpty()) {
+      candidates = endpoints;
+    }
+    if (candidates.size() == 1) {
+      return candidates.getFirst();
+    }
+
+    // two random endpoints, the one with fewer requests in flight wins
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final int first = random.nextInt(candidates.size());
+    final int second = (first + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+    final Endpoint firstEndpoint = candidates.get(first);
+    final Endpoint secondEndpoint = candidates.get(second);
+    return firstEndpoint.outstanding.get() <= secondEndpoint.outstanding.get()
+        ? firstEndpoint
+        : secondEndpoint;
+  }
+
+  // same failure signals as the circuit breaker: upstream errors, timeouts, 5xx
+  void onResult(final Endpoint endpoint, final boolean isFailure) {
+    endpoint.outstanding.decrementAndGet();
+    if (!isFailure) {
+      endpoint.consecutiveFailures.set(0);
+      // back to the base ejection time once it has stayed in for as long as the longest one
+      if (endpoint.ejections.get() > 0
+          && System.nanoTime() - endpoint.ejectedUntilNanos
+              > TimeUnit.MILLISECONDS.toNanos(Constants.UPSTREAM_EJECT_MAX_MILLIS)) {
+        endpoint.ejections.set(0);
+      }
+      return;
+    }
+    endpoint.failures.increment();
+    if (endpoint.consecutiveFailures.incrementAndGet() >= Constants.UPSTREAM_EJECT_FAILURES) {
+      eject(endpoint);
+    }
+  }
+
+  // attempt ended without telling anything about the endpoint, eg: canceled
+  void onIgnored(final Endpoint endpoint) {
+    endpoint.outstanding.decrementAndGet();
+  }
+
+  private void eject(final Endpoint endpoint) {
+    final long nowNanos = System.nanoTime();
+    final long ejectedEndpoints =
+        endpoints.stream().filter(other -> other.isEjected(nowNanos)).count();
+    // never eject so many that the rest of the endpoints get all of the load
+    if (endpoint.isEjected(nowNanos)
+        || (ejectedEndpoints + 1) * 100 > endpoints.size() * Constants.UPSTREAM_EJECT_MAX_PERCENT) {
+      return;
+    }
+    final int ejections = endpoint.ejections.incrementAndGet();
+    final long ejectionMillis =
+        Math.min(
+            Constants.UPSTREAM_EJECT_MAX_MILLIS,
+            Constants.UPSTREAM_EJECT_BASE_MILLIS * Math.min(ejections, 10));
+    endpoint.ejectedUntilNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(ejectionMillis);
+    endpoint.consecutiveFailures.set(0);
+    logger.warn("Upstream Endpoint Ejected: [{}] | [{}ms]", endpoint.baseUrl, ejectionMillis);
+  }
+
+  private boolean isSame(final RouteConfig routeConfig, final String targetBaseUrl) {
+    return this.targetBaseUrl.equals(targetBaseUrl)
+        && this.healthPath.equals(routeConfig.getHealthPath());
+  }
+
+  private Endpoint getEndpoint(final String baseUrl) {
+    return endpoints.stream()
+        .filter(endpoint -> endpoint.baseUrl.equals(baseUrl))
+        .findFirst()
+        .orElse(null);
+  }
+
+  private static void probeAll() {
+    try {
+      UPSTREAM_GROUPS.values().stream()
+          .filter(upstreamGroup -> !upstreamGroup.healthPath.isEmpty())
+          .forEach(upstreamGroup -> upstreamGroup.endpoints.forEach(upstreamGroup::probe));
+    } catch (Exception ex) {
+      logger.error("Upstream Health Probe Error...", ex);
+    }
+  }
+
+  private void probe(final Endpoint endpoint) {
+    final Request request = new Request.Builder().url(endpoint.baseUrl + healthPath).get().build();
+    HEALTH_CLIENT
+        .newCall(request)
+        .enqueue(
+            new Callback() {
+              @Override
+              public void onResponse(@NotNull final Call call, @NotNull final Response response) {
+                try (response) {
+                  endpoint.onProbe(response.isSuccessful());
+                }
+              }
+
+              @Override
+              public void onFailure(@NotNull final Call call, @NotNull final IOException ex) {
+                endpoint.onProbe(false);
+              }
+            });
+  }
+
+  static final class Endpoint {
+    private final String baseUrl;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger failedProbes = new AtomicInteger();
+    private final AtomicInteger ejections = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile long ejectedUntilNanos = System.nanoTime();
+    private volatile boolean isHealthy = true;
+
+    private Endpoint(final String baseUrl) {
+      this.baseUrl = baseUrl;
+    }
+
+    String getBaseUrl() {
+      return baseUrl;
+    }
+
+    void onAttempt() {
+      outstanding.incrementAndGet();
+      requests.increment();
+    }
+
+    private boolean isEjected(final long nowNanos) {
+      return ejectedUntilNanos - nowNanos > 0;
+    }
+
+    private boolean isAvailable(final long nowNanos) {
+      return isHealthy && !isEjected(nowNanos);
+    }
+
+    // one good probe brings an endpoint back, a few failed ones in a row take it out
+    private void onProbe(final boolean isSuccess) {
+      final boolean wasHealthy = isHealthy;
+      if (isSuccess) {
+        failedProbes.set(0);
+        isHealthy = true;
+      } else if (failedProbes.incrementAndGet() >= Constants.UPSTREAM_HEALTH_FAILED_PROBES) {
+        isHealthy = false;
+      }
+      if (wasHealthy != isHealthy) {
+        logger.warn("Upstream Endpoint Health Changed: [{}] | [{}]", baseUrl, isHealthy);
+      }
+    }
+
+    private Map<String, Object> stats() {
+      final Map<String, Object> stats = new LinkedHashMap<>();
+      stats.put("healthy", isHealthy);
+      stats.put("ejected", isEjected(System.nanoTime()));
+      stats.put("outstanding", outstanding.get());
+      stats.put("requests", requests.sum());
+      stats.put("failures", failures.sum());
+      stats.put("ejections", ejections.get());
+      return stats;
+    }
+
+    @Override
+    public String toString() {
+      return baseUrl;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "UpstreamGroup: [ Endpoints: " + endpoints + " ]";
+  }
+}
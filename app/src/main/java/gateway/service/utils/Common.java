@@ -2,11 +2,14 @@ package gateway.service.utils;
 
 import gateway.service.dtos.GatewayRequestDetails;
 import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
-import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.cors.CorsConfigBuilder;
 import io.netty.handler.codec.http.cors.CorsHandler;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.regex.Pattern;
 
 public class Common {
@@ -27,8 +30,17 @@ public class Common {
     return gatewayRequestDetails == null ? "!NULL_GRD!" : gatewayRequestDetails.getRequestId();
   }
 
-  public static boolean isCheckPermissions(final FullHttpRequest fullHttpRequest) {
-    return PERMISSIONS_URL_PATTERN.matcher(fullHttpRequest.uri()).matches();
+  public static String getSha256Hex(final String value) {
+    try {
+      final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(messageDigest.digest(value.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 Not Available...", ex);
+    }
+  }
+
+  public static boolean isCheckPermissions(final String requestUri) {
+    return PERMISSIONS_URL_PATTERN.matcher(requestUri).matches();
   }
 
   public static CorsHandler newCorsHandler() {
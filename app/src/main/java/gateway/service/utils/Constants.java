@@ -2,7 +2,6 @@ package gateway.service.utils;
 
 import gateway.service.dtos.GatewayRequestDetails;
 import io.netty.util.AttributeKey;
-import java.time.Duration;
 import java.util.List;
 
 public class Constants {
@@ -42,11 +41,72 @@ public class Constants {
   public static final String BASIC_AUTH_NAME = "BASIC_AUTH_BEGINS_WITH";
   public static final String BASE_URLS_NAME_BEGINS_WITH = "BASE_URLS";
   public static final String PROXY_HEADERS = "PROXY_HEADERS";
+  public static final String ROUTE_CONFIGS_NAME = "ROUTE_CONFIGS";
+  public static final String JWT_KEYS_NAME = "JWT_KEYS";
+
+  // ROUTE CONFIGS (keyed as apiName + suffix, eg: authsvc_pool_max_idle)
+  public static final String RC_POOL_MAX_IDLE = "_pool_max_idle";
+  public static final String RC_POOL_KEEP_ALIVE_MINUTES = "_pool_keep_alive_minutes";
+  public static final String RC_MAX_REQUESTS_PER_HOST = "_max_requests_per_host";
+  public static final String RC_CONNECT_TIMEOUT_MILLIS = "_connect_timeout_millis";
+  public static final String RC_READ_TIMEOUT_MILLIS = "_read_timeout_millis";
+  public static final String RC_WRITE_TIMEOUT_MILLIS = "_write_timeout_millis";
+  public static final String RC_MAX_RETRIES = "_max_retries";
+  public static final String RC_HEDGE_PERCENTILE = "_hedge_percentile";
+  public static final String RC_HEALTH_PATH = "_health_path";
+  public static final String RC_UPSTREAM_PROTOCOL = "_upstream_protocol";
+  public static final String RC_CACHE_ENABLED = "_cache_enabled";
+  public static final String RC_CB_FAILURE_RATE_PERCENT = "_cb_failure_rate_percent";
+  public static final String RC_CB_SLOW_CALL_MILLIS = "_cb_slow_call_millis";
+  public static final String RC_CB_OPEN_TIMEOUT_MILLIS = "_cb_open_timeout_millis";
+  public static final String RC_CB_HALF_OPEN_PROBES = "_cb_half_open_probes";
+  public static final String RC_RL_ROUTE_REQUESTS_PER_SECOND = "_rl_route_requests_per_second";
+  public static final String RC_RL_ROUTE_BURST = "_rl_route_burst";
+  public static final String RC_RL_CLIENT_REQUESTS_PER_SECOND = "_rl_client_requests_per_second";
+  public static final String RC_RL_CLIENT_BURST = "_rl_client_burst";
+  public static final String RC_CL_INITIAL_LIMIT = "_cl_initial_limit";
+  public static final String RC_CL_MIN_LIMIT = "_cl_min_limit";
+  public static final String RC_CL_MAX_LIMIT = "_cl_max_limit";
+  public static final String RC_CL_CLIENT_MAX_IN_FLIGHT = "_cl_client_max_in_flight";
 
   // OTHERS
   public static final String API_NAME_AUTH_SERVICE = "authsvc";
   public static final String THIS_APP_NAME = "gatewaysvc";
   public static final String ENV_PORT_DEFAULT = "8000";
+  public static final String ENV_KEEP_ALIVE_MAX_REQUESTS = "KEEP_ALIVE_MAX_REQUESTS";
+  public static final String ENV_KEEP_ALIVE_MAX_REQUESTS_DEFAULT = "1000";
+  public static final String ENV_KEEP_ALIVE_IDLE_SECONDS = "KEEP_ALIVE_IDLE_SECONDS";
+  public static final String ENV_KEEP_ALIVE_IDLE_SECONDS_DEFAULT = "60";
+  // SERVER TRANSPORT (auto picks io_uring, then epoll, then nio)
+  public static final String ENV_SERVER_TRANSPORT = "SERVER_TRANSPORT";
+  public static final String ENV_SERVER_TRANSPORT_DEFAULT = "auto";
+  public static final String ENV_SERVER_ACCEPTORS = "SERVER_ACCEPTORS";
+  public static final String ENV_SERVER_ACCEPTORS_DEFAULT = "1";
+  public static final String ENV_SERVER_WORKER_THREADS = "SERVER_WORKER_THREADS";
+  public static final String ENV_SERVER_SO_BACKLOG = "SERVER_SO_BACKLOG";
+  public static final String ENV_SERVER_SO_BACKLOG_DEFAULT = "1024";
+  public static final String ENV_SERVER_TCP_NODELAY = "SERVER_TCP_NODELAY";
+  public static final String ENV_SERVER_TCP_NODELAY_DEFAULT = "true";
+  public static final String ENV_SERVER_WRITE_LOW_WATER_MARK = "SERVER_WRITE_LOW_WATER_MARK";
+  public static final String ENV_SERVER_WRITE_LOW_WATER_MARK_DEFAULT = "65536"; // 64KB
+  public static final String ENV_SERVER_WRITE_HIGH_WATER_MARK = "SERVER_WRITE_HIGH_WATER_MARK";
+  public static final String ENV_SERVER_WRITE_HIGH_WATER_MARK_DEFAULT = "262144"; // 256KB
+  public static final String ENV_SERVER_ALLOCATOR_ARENAS = "SERVER_ALLOCATOR_ARENAS";
+  // HTTP/2 (h2c by prior knowledge or upgrade, on the same port as http/1.1)
+  public static final String ENV_SERVER_HTTP2 = "SERVER_HTTP2";
+  public static final String ENV_SERVER_HTTP2_DEFAULT = "true";
+  public static final String ENV_SERVER_HTTP2_MAX_STREAMS = "SERVER_HTTP2_MAX_STREAMS";
+  public static final String ENV_SERVER_HTTP2_MAX_STREAMS_DEFAULT = "100";
+  public static final int SERVER_HTTP2_UPGRADE_MAX_CONTENT_LENGTH = 65536; // 64KB
+  // TLS (on when both pem files are set, reloaded when they change)
+  public static final String ENV_SERVER_TLS_CERT_FILE = "SERVER_TLS_CERT_FILE";
+  public static final String ENV_SERVER_TLS_KEY_FILE = "SERVER_TLS_KEY_FILE";
+  public static final String ENV_SERVER_TLS_KEY_PASSWORD = "SERVER_TLS_KEY_PASSWORD";
+  public static final long SERVER_TLS_SESSION_CACHE_SIZE = 20480;
+  public static final long SERVER_TLS_SESSION_TIMEOUT_SECONDS = 3600; // 1 hour
+  public static final long SERVER_TLS_RELOAD_INTERVAL_SECONDS = 60;
+  public static final long SERVER_TLS_TICKET_KEY_ROTATE_HOURS = 12;
+  public static final long SERVER_TLS_HANDSHAKE_TIMEOUT_MILLIS = 10000; // 10 seconds
   public static final String PRODUCTION_ENV = "PRODUCTION";
 
   public static final String HEADER_X_AUTH_APPID = "x-auth-appid";
@@ -59,29 +119,119 @@ public class Constants {
   public static final String AUTH_APPS_USR = "_usr";
   public static final String AUTH_APPS_PWD = "_pwd";
 
+  // TOKEN CACHE
+  public static final String ENV_TOKEN_CACHE_TTL_SECONDS = "TOKEN_CACHE_TTL_SECONDS";
+  public static final String ENV_TOKEN_CACHE_TTL_SECONDS_DEFAULT = "300";
+  public static final String ENV_TOKEN_CACHE_MAX_SIZE = "TOKEN_CACHE_MAX_SIZE";
+  public static final String ENV_TOKEN_CACHE_MAX_SIZE_DEFAULT = "10000";
+  public static final int TOKEN_CACHE_EVICTION_SAMPLE = 16;
+  public static final String ENV_VALIDATE_TOKEN_MAX_CONCURRENCY = "VALIDATE_TOKEN_MAX_CONCURRENCY";
+  public static final String ENV_VALIDATE_TOKEN_MAX_CONCURRENCY_DEFAULT = "64";
+  public static final String ENV_VALIDATE_TOKEN_TIMEOUT_MILLIS = "VALIDATE_TOKEN_TIMEOUT_MILLIS";
+  public static final String ENV_VALIDATE_TOKEN_TIMEOUT_MILLIS_DEFAULT = "5000";
+
+  // JWT (keys keyed by kid, valued as type:material)
+  public static final String ENV_JWT_LOCAL_VERIFY = "JWT_LOCAL_VERIFY";
+  public static final String ENV_JWT_LOCAL_VERIFY_DEFAULT = "false";
+  public static final String JWT_AUTH_TOKEN_CLAIM = "authToken";
+  public static final String JWT_KEY_TYPE_HMAC = "hmac";
+  public static final String JWT_KEY_TYPE_RSA = "rsa";
+  public static final long JWT_REVOKED_DEFAULT_MILLIS = 60 * 60 * 1000; // 1 hour
+
   // UTILS
   public static final long ROUTES_REFRESH_INTERVAL = 7 * 60 * 1000; // every 7 minutes
+  public static final long ROUTES_REFRESH_BACKOFF_MILLIS = 5000; // doubles on every failure
+  public static final double ROUTES_REFRESH_JITTER = 0.1; // +/- 10%
+  public static final String ENV_ROUTES_CACHE_FILE = "ROUTES_CACHE_FILE";
+  // relative paths are resolved against the home directory of the service user
+  public static final String ENV_ROUTES_CACHE_FILE_DEFAULT = ".gatewaysvc/routes.json";
 
   // PROXY
   public static final AttributeKey<GatewayRequestDetails> GATEWAY_REQUEST_DETAILS_KEY =
       AttributeKey.valueOf("GATEWAY_REQUEST_DETAILS");
+  public static final AttributeKey<Integer> READ_PAUSE_COUNT_KEY =
+      AttributeKey.valueOf("READ_PAUSE_COUNT");
+
+  public static final int PROXY_BODY_CHUNK_SIZE = 16384; // 16KB
+  public static final int PROXY_BODY_HIGH_WATER_MARK = 262144; // 256KB
+  public static final int PROXY_BODY_LOW_WATER_MARK = 65536; // 64KB
+  public static final int PROXY_BODY_TIMEOUT_SECONDS = 15;
+  public static final long PROXY_WRITABILITY_WAIT_MILLIS = 1000;
+  public static final int PROXY_MAX_REQUESTS_PER_ROUTE = 4096;
+  public static final int PROXY_MAX_REQUESTS_PER_HOST = 1024;
+  public static final int PROXY_POOL_MAX_IDLE = 10;
+  public static final int PROXY_POOL_KEEP_ALIVE_MINUTES = 5;
+  public static final int PROXY_CONNECT_TIMEOUT_MILLIS = 5000; // 5 seconds
+  public static final int PROXY_READ_TIMEOUT_MILLIS = 15000; // 15 seconds
+  public static final int PROXY_WRITE_TIMEOUT_MILLIS = 15000; // 15 seconds
+  public static final int PROXY_MAX_RETRIES = 0;
+  public static final long PROXY_RETRY_BACKOFF_MILLIS = 50;
+  // retries and hedges together up to 10% of requests, with at most 10 saved up
+  public static final int PROXY_RETRY_BUDGET_PERCENT = 10;
+  public static final int PROXY_RETRY_BUDGET_MAX = 10;
+  // the budget counts thousandths of a retry, so a request can add a fraction of one
+  public static final long PROXY_RETRY_CREDITS_PER_RETRY = 1000;
+  public static final int PROXY_LATENCY_SAMPLES = 512;
+  public static final int PROXY_LATENCY_MIN_SAMPLES = 50;
+  public static final int PROXY_LATENCY_RECOMPUTE_EVERY = 64;
+  public static final long PROXY_HEDGE_MIN_DELAY_MILLIS = 5;
+  // upstream protocol of a route, by default h2 where tls negotiates it, else http/1.1
+  public static final String UPSTREAM_PROTOCOL_H2C = "h2c"; // http/2 without tls
+  public static final String UPSTREAM_PROTOCOL_HTTP1 = "http1"; // http/1.1 only
+  // RESPONSE CACHE (get responses of routes with the cache on, within one memory budget)
+  public static final String ENV_RESPONSE_CACHE_MAX_BYTES = "RESPONSE_CACHE_MAX_BYTES";
+  public static final String ENV_RESPONSE_CACHE_MAX_BYTES_DEFAULT = "67108864"; // 64MB
+  public static final long RESPONSE_CACHE_MAX_ENTRY_BYTES = 1048576; // 1MB
+  public static final int RESPONSE_CACHE_SKETCH_WIDTH = 16384;
+  // UPSTREAM GROUP (several base urls per route, comma separated)
+  public static final int UPSTREAM_EJECT_FAILURES = 5; // in a row
+  public static final int UPSTREAM_EJECT_MAX_PERCENT = 50;
+  public static final long UPSTREAM_EJECT_BASE_MILLIS = 10000; // 10 seconds
+  public static final long UPSTREAM_EJECT_MAX_MILLIS = 300000; // 5 minutes
+  public static final long UPSTREAM_HEALTH_INTERVAL_SECONDS = 5;
+  public static final int UPSTREAM_HEALTH_TIMEOUT_MILLIS = 2000;
+  public static final int UPSTREAM_HEALTH_FAILED_PROBES = 2;
 
-  public static final int BOSS_GROUP_THREADS = 1;
-  public static final int WORKER_GROUP_THREADS = 8;
-  public static final int CONNECT_TIMEOUT_MILLIS = 5000; // 5 seconds
-  public static final int MAX_CONTENT_LENGTH = 1048576; // 1MB
   // CIRCUIT BREAKER
-  public static final int CB_FAILURE_THRESHOLD = 3;
-  public static final Duration CB_OPEN_TIMEOUT = Duration.ofSeconds(10);
+  public static final int CB_WINDOW_SIZE = 100; // last 100 calls
+  public static final long CB_WINDOW_MILLIS = 60000; // but none older than 1 minute
+  public static final int CB_MINIMUM_CALLS = 10;
+  public static final int CB_FAILURE_RATE_PERCENT = 50;
+  public static final int CB_SLOW_CALL_RATE_PERCENT = 80;
+  public static final int CB_SLOW_CALL_MILLIS = 10000; // 10 seconds
+  public static final int CB_OPEN_TIMEOUT_MILLIS = 10000; // 10 seconds
+  public static final int CB_HALF_OPEN_PROBES = 3;
+
+  // FILTER EXECUTION (event_loop or virtual_thread)
+  public static final String ENV_EXECUTION_MODE = "EXECUTION_MODE";
+  public static final String ENV_EXECUTION_MODE_DEFAULT = "event_loop";
+  public static final String EXECUTION_MODE_VIRTUAL_THREAD = "virtual_thread";
+
+  // CONCURRENCY LIMITER (requests in flight per route)
+  public static final int CL_INITIAL_LIMIT = 20;
+  public static final int CL_MIN_LIMIT = 5;
+  public static final int CL_MAX_LIMIT = 1000;
+  public static final int CL_CLIENT_MAX_IN_FLIGHT = 0;
+  public static final double CL_VEGAS_ALPHA = 3;
+  public static final double CL_VEGAS_BETA = 6;
+  public static final double CL_DROP_DECREASE_FACTOR = 0.9;
+  public static final long CL_MIN_RTT_RESET_MILLIS = 30000; // 30 seconds
 
-  // RATE LIMITER (10 requests per second)
-  public static final int RL_MAX_REQUESTS = 10;
-  public static final int RL_TIME_WINDOW_MILLIS = 1;
+  // RATE LIMITER (10 requests per second per client, no route wide limit)
+  public static final int RL_CLIENT_REQUESTS_PER_SECOND = 10;
+  public static final int RL_ROUTE_REQUESTS_PER_SECOND = 0;
+  public static final long RL_SWEEP_INTERVAL_SECONDS = 60;
+  // with a quota store buckets lease a tenth of a second of tokens at a time, valid for a second
+  public static final String RL_MODE_LOCAL = "local";
+  public static final String RL_MODE_DISTRIBUTED = "distributed";
+  public static final int RL_LEASE_PERCENT = 10;
+  public static final long RL_LEASE_MILLIS = 1000;
 
   // GATEWAY SERVICE ENDPOINTS
   public static final String TESTS_PING = "/" + THIS_APP_NAME + "/tests/ping";
   public static final String TESTS_RESET = "/" + THIS_APP_NAME + "/tests/reset";
   public static final String TESTS_LOGS = "/" + THIS_APP_NAME + "/tests/logs";
+  public static final String TESTS_METRICS = "/" + THIS_APP_NAME + "/tests/metrics";
 
   // GATEWAY SERVICE ENDPOINTS PARAMS
   public static final String TEST_LOGS_PARAM_LEVEL = "level";
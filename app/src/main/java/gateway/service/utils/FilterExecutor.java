@@ -0,0 +1,75 @@
+package gateway.service.utils;
+
+import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
+import io.netty.channel.ChannelHandlerContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// where the blocking part of a filter runs, on the channel's event loop or, in virtual thread
+// mode, on a virtual thread of its own, the result is always handled back on the event loop so
+// that the filter's per channel state is only ever touched by one thread
+public class FilterExecutor {
+  private static final Logger logger = LoggerFactory.getLogger(FilterExecutor.class);
+
+  private static final boolean IS_VIRTUAL_THREAD_MODE =
+      Constants.EXECUTION_MODE_VIRTUAL_THREAD.equals(
+          CommonUtilities.getSystemEnvProperty(
+              Constants.ENV_EXECUTION_MODE, Constants.ENV_EXECUTION_MODE_DEFAULT));
+  private static final ExecutorService FILTER_EXECUTOR =
+      Executors.newVirtualThreadPerTaskExecutor();
+
+  private static final LongAdder OFFLOADED = new LongAdder();
+
+  static {
+    logger.info("Filter Execution Mode: [{}]", getExecutionMode());
+  }
+
+  public static String getExecutionMode() {
+    return IS_VIRTUAL_THREAD_MODE
+        ? Constants.EXECUTION_MODE_VIRTUAL_THREAD
+        : Constants.ENV_EXECUTION_MODE_DEFAULT;
+  }
+
+  // callers keep their request in order themselves, eg: reads paused until the result is in
+  public static <T> void execute(
+      final ChannelHandlerContext channelHandlerContext,
+      final Supplier<CompletableFuture<T>> work,
+      final BiConsumer<T, Throwable> onComplete) {
+    final CompletableFuture<T> future;
+    if (IS_VIRTUAL_THREAD_MODE) {
+      OFFLOADED.increment();
+      future =
+          CompletableFuture.supplyAsync(work, FILTER_EXECUTOR)
+              .thenCompose(workFuture -> workFuture);
+    } else {
+      future = callWork(work);
+    }
+
+    future.whenComplete(
+        (result, throwable) ->
+            channelHandlerContext.executor().execute(() -> onComplete.accept(result, throwable)));
+  }
+
+  public static Map<String, Object> getStats() {
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("executionMode", getExecutionMode());
+    stats.put("offloaded", OFFLOADED.sum());
+    return stats;
+  }
+
+  private static <T> CompletableFuture<T> callWork(final Supplier<CompletableFuture<T>> work) {
+    try {
+      return work.get();
+    } catch (RuntimeException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+  }
+}
@@ -4,21 +4,30 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import gateway.service.dtos.GatewayRequestDetails;
+import gateway.service.proxy.CircuitBreaker;
+import gateway.service.proxy.ConcurrencyLimiter;
+import gateway.service.proxy.ProxyBodyStats;
+import gateway.service.proxy.ProxyClient;
+import gateway.service.proxy.RateLimiter;
+import gateway.service.proxy.ResponseCache;
+import gateway.service.proxy.ServerTls;
+import gateway.service.proxy.UpstreamGroup;
 import io.github.bibekaryal86.shdsvc.dtos.ResponseMetadata;
 import io.github.bibekaryal86.shdsvc.dtos.ResponseWithMetadata;
 import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.ChannelFutureListener;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
-import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -31,7 +40,7 @@ public class Gateway {
   public static boolean gatewaySvcResponse(
       final GatewayRequestDetails gatewayRequestDetails,
       final ChannelHandlerContext channelHandlerContext,
-      final FullHttpRequest fullHttpRequest) {
+      final HttpRequest httpRequest) {
     boolean isGatewaySvcResponse = false;
     if (gatewayRequestDetails.getApiName().equals(Constants.THIS_APP_NAME)) {
       final String requestUri = gatewayRequestDetails.getRequestUri();
@@ -45,7 +54,10 @@ public class Gateway {
         handleTestsReset(channelHandlerContext);
         isGatewaySvcResponse = true;
       } else if (requestUri.startsWith(Constants.TESTS_LOGS)) {
-        handleTestsLogs(channelHandlerContext, fullHttpRequest);
+        handleTestsLogs(channelHandlerContext, httpRequest);
+        isGatewaySvcResponse = true;
+      } else if (requestUri.startsWith(Constants.TESTS_METRICS)) {
+        handleTestsMetrics(channelHandlerContext);
         isGatewaySvcResponse = true;
       }
     }
@@ -70,12 +82,15 @@ public class Gateway {
       final String jsonResponse = CommonUtilities.writeValueAsStringNoEx(responseWithMetadata);
       fullHttpResponse =
           new DefaultFullHttpResponse(
-              HttpVersion.HTTP_1_1, status, Unpooled.wrappedBuffer(jsonResponse.getBytes()));
-      fullHttpResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, jsonResponse.length());
+              HttpVersion.HTTP_1_1,
+              status,
+              ByteBufUtil.writeUtf8(channelHandlerContext.alloc(), jsonResponse));
     }
 
     fullHttpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
-    channelHandlerContext.writeAndFlush(fullHttpResponse).addListener(ChannelFutureListener.CLOSE);
+    HttpUtil.setContentLength(fullHttpResponse, fullHttpResponse.content().readableBytes());
+    // connection is kept open or closed by KeepAliveHandler
+    channelHandlerContext.writeAndFlush(fullHttpResponse);
   }
 
   public static void sendResponse(
@@ -84,10 +99,11 @@ public class Gateway {
         new DefaultFullHttpResponse(
             HttpVersion.HTTP_1_1,
             HttpResponseStatus.OK,
-            Unpooled.wrappedBuffer(jsonResponse.getBytes()));
+            // encoded straight into a pooled buffer, no intermediate byte array
+            ByteBufUtil.writeUtf8(channelHandlerContext.alloc(), jsonResponse));
     fullHttpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
-    fullHttpResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, jsonResponse.length());
-    channelHandlerContext.writeAndFlush(fullHttpResponse).addListener(ChannelFutureListener.CLOSE);
+    HttpUtil.setContentLength(fullHttpResponse, fullHttpResponse.content().readableBytes());
+    channelHandlerContext.writeAndFlush(fullHttpResponse);
   }
 
   private static void handleTestsPing(final ChannelHandlerContext channelHandlerContext) {
@@ -95,17 +111,20 @@ public class Gateway {
   }
 
   private static void handleTestsReset(final ChannelHandlerContext channelHandlerContext) {
-    Routes.refreshRoutes();
+    Routes.refreshNow();
+    TokenCache.invalidateAll();
     sendResponse(Constants.TESTS_RESET_RESPONSE, channelHandlerContext);
   }
 
   private static void handleTestsLogs(
-      final ChannelHandlerContext channelHandlerContext, final FullHttpRequest fullHttpRequest) {
-    final QueryStringDecoder queryStringDecoder = new QueryStringDecoder(fullHttpRequest.uri());
+      final ChannelHandlerContext channelHandlerContext, final HttpRequest httpRequest) {
+    final QueryStringDecoder queryStringDecoder = new QueryStringDecoder(httpRequest.uri());
     final Map<String, List<String>> parameters = queryStringDecoder.parameters();
     final List<String> logLevels = parameters.get(Constants.TEST_LOGS_PARAM_LEVEL);
 
     if (CommonUtilities.isEmpty(logLevels)) {
+      // respond anyway, a kept alive connection would otherwise wait for it
+      sendErrorResponse(channelHandlerContext, HttpResponseStatus.BAD_REQUEST, "Missing Log Level");
       return;
     }
 
@@ -130,6 +149,25 @@ public class Gateway {
         generateTestsLogsResponse(currentLogLevel, proposedLogLevel), channelHandlerContext);
   }
 
+  private static void handleTestsMetrics(final ChannelHandlerContext channelHandlerContext) {
+    final Map<String, Object> testsMetricsResponse = new LinkedHashMap<>();
+    testsMetricsResponse.put("routesRefresh", Routes.getRefreshStats());
+    testsMetricsResponse.put("serverTls", ServerTls.getStats());
+    testsMetricsResponse.put("upstreamPools", ProxyClient.getPoolStats());
+    testsMetricsResponse.put("upstreamEndpoints", UpstreamGroup.getStats());
+    testsMetricsResponse.put("circuitBreakers", CircuitBreaker.getStats());
+    testsMetricsResponse.put("concurrencyLimiters", ConcurrencyLimiter.getStats());
+    testsMetricsResponse.put("rateLimiters", RateLimiter.getStats());
+    testsMetricsResponse.put("proxyBodies", ProxyBodyStats.getStats());
+    testsMetricsResponse.put("responseCache", ResponseCache.getStats());
+    testsMetricsResponse.put("tokenCache", TokenCache.getStats());
+    testsMetricsResponse.put("tokenValidation", Validate.getStats());
+    testsMetricsResponse.put("filterExecution", FilterExecutor.getStats());
+    testsMetricsResponse.put("jwtVerification", JwtVerifier.getStats());
+    sendResponse(
+        CommonUtilities.writeValueAsStringNoEx(testsMetricsResponse), channelHandlerContext);
+  }
+
   private static String generateTestsLogsResponse(
       final String oldLogLevel, final String newLogLevel) {
     Map<String, Object> testsLogsResponse = new HashMap<>();
@@ -0,0 +1,217 @@
+package gateway.service.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.bibekaryal86.shdsvc.Secrets;
+import io.github.bibekaryal86.shdsvc.dtos.AuthToken;
+import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// verifies signed jwts against keys from env details, tokens it can not decide on (not a jwt,
+// unknown key id, unsupported algorithm, no auth token claim) are validated by auth service
+public class JwtVerifier {
+  private static final Logger logger = LoggerFactory.getLogger(JwtVerifier.class);
+
+  private static final boolean IS_ENABLED =
+      Boolean.parseBoolean(
+          CommonUtilities.getSystemEnvProperty(
+              Constants.ENV_JWT_LOCAL_VERIFY, Constants.ENV_JWT_LOCAL_VERIFY_DEFAULT));
+
+  // token hash to its expiry, revoked tokens are only tracked until they expire anyway
+  private static final Map<String, Long> REVOKED = new ConcurrentHashMap<>();
+  private static final LongAdder VERIFIED = new LongAdder();
+  private static final LongAdder REJECTED = new LongAdder();
+  private static final LongAdder FALLBACKS = new LongAdder();
+
+  public enum Status {
+    VERIFIED,
+    REJECTED,
+    UNKNOWN
+  }
+
+  public record Verification(Status status, AuthToken authToken) {}
+
+  public static boolean isEnabled() {
+    return IS_ENABLED;
+  }
+
+  public static Verification verify(final String token, final int appId) {
+    final String[] tokenParts = TokenCache.stripBearer(token).split("\\.");
+    if (tokenParts.length != 3) {
+      return unknown();
+    }
+    if (REVOKED.containsKey(TokenCache.getTokenHash(token))) {
+      return rejected();
+    }
+
+    try {
+      final JsonNode header = readTokenPart(tokenParts[0]);
+      final JsonNode claims = readTokenPart(tokenParts[1]);
+      final Key key = Routes.getJwtKeys().get(header.path("kid").asText());
+      final String algorithm = getJcaAlgorithm(header.path("alg").asText());
+      if (key == null || algorithm == null) {
+        return unknown();
+      }
+      // the key decides the algorithm family, eg: rsa public key presented as hmac secret
+      if (algorithm.startsWith("Hmac") != key instanceof SecretKey) {
+        return rejected();
+      }
+      if (!isSignatureValid(key, algorithm, tokenParts)) {
+        return rejected();
+      }
+
+      final long nowSeconds = System.currentTimeMillis() / 1000;
+      if (!claims.path("exp").canConvertToLong()) {
+        return unknown();
+      }
+      if (claims.path("exp").asLong() <= nowSeconds
+          || claims.path("nbf").asLong(0) > nowSeconds
+          || !isAudienceValid(claims.path("aud"), appId)) {
+        return rejected();
+      }
+
+      final JsonNode authTokenClaim = claims.get(Constants.JWT_AUTH_TOKEN_CLAIM);
+      if (authTokenClaim == null) {
+        return unknown();
+      }
+      final AuthToken authToken =
+          CommonUtilities.objectMapperProvider().treeToValue(authTokenClaim, AuthToken.class);
+      VERIFIED.increment();
+      return new Verification(Status.VERIFIED, authToken);
+    } catch (Exception ex) {
+      logger.debug("Jwt Not Verifiable Locally...", ex);
+      return unknown();
+    }
+  }
+
+  // auth service rejected a token that verified locally, eg: logout
+  public static void revoke(final String token) {
+    final long nowMillis = System.currentTimeMillis();
+    long expiresAtMillis = nowMillis + Constants.JWT_REVOKED_DEFAULT_MILLIS;
+    try {
+      final JsonNode claims = readTokenPart(TokenCache.stripBearer(token).split("\\.")[1]);
+      if (claims.path("exp").canConvertToLong()) {
+        expiresAtMillis = claims.path("exp").asLong() * 1000;
+      }
+    } catch (Exception ex) {
+      logger.debug("Revoked Jwt Expiry Not Readable...", ex);
+    }
+
+    REVOKED.values().removeIf(revokedUntilMillis -> revokedUntilMillis <= nowMillis);
+    REVOKED.put(TokenCache.getTokenHash(token), expiresAtMillis);
+  }
+
+  // value is key type and key material, eg: hmac:<encrypted secret> or rsa:<base64 x509 key>
+  public static Key getVerificationKey(final String keyId, final String keyValue) {
+    final int separatorIndex = keyValue.indexOf(':');
+    if (separatorIndex <= 0) {
+      logger.error("Jwt Key Malformed: [{}]", keyId);
+      return null;
+    }
+
+    final String keyType = keyValue.substring(0, separatorIndex);
+    final String keyMaterial = keyValue.substring(separatorIndex + 1);
+    try {
+      if (Constants.JWT_KEY_TYPE_HMAC.equals(keyType)) {
+        return new SecretKeySpec(
+            Secrets.decryptSecret(keyMaterial).getBytes(StandardCharsets.UTF_8), "Hmac");
+      }
+      if (Constants.JWT_KEY_TYPE_RSA.equals(keyType)) {
+        return KeyFactory.getInstance("RSA")
+            .generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(keyMaterial)));
+      }
+      logger.error("Jwt Key Type Not Supported: [{}] | [{}]", keyId, keyType);
+    } catch (Exception ex) {
+      logger.error("Jwt Key Not Readable: [{}]", keyId, ex);
+    }
+    return null;
+  }
+
+  public static Map<String, Object> getStats() {
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("enabled", IS_ENABLED);
+    stats.put("keys", Routes.getJwtKeys().size());
+    stats.put("verified", VERIFIED.sum());
+    stats.put("rejected", REJECTED.sum());
+    stats.put("fallbacks", FALLBACKS.sum());
+    stats.put("revoked", REVOKED.size());
+    return stats;
+  }
+
+  private static Verification unknown() {
+    FALLBACKS.increment();
+    return new Verification(Status.UNKNOWN, null);
+  }
+
+  private static Verification rejected() {
+    REJECTED.increment();
+    return new Verification(Status.REJECTED, null);
+  }
+
+  private static JsonNode readTokenPart(final String tokenPart) throws Exception {
+    return CommonUtilities.objectMapperProvider()
+        .readTree(Base64.getUrlDecoder().decode(tokenPart));
+  }
+
+  private static String getJcaAlgorithm(final String jwtAlgorithm) {
+    return switch (jwtAlgorithm) {
+      case "HS256" -> "HmacSHA256";
+      case "HS384" -> "HmacSHA384";
+      case "HS512" -> "HmacSHA512";
+      case "RS256" -> "SHA256withRSA";
+      case "RS384" -> "SHA384withRSA";
+      case "RS512" -> "SHA512withRSA";
+      default -> null;
+    };
+  }
+
+  private static boolean isSignatureValid(
+      final Key key, final String algorithm, final String[] tokenParts) throws Exception {
+    final byte[] signingInput =
+        (tokenParts[0] + "." + tokenParts[1]).getBytes(StandardCharsets.US_ASCII);
+    final byte[] tokenSignature = Base64.getUrlDecoder().decode(tokenParts[2]);
+
+    if (key instanceof SecretKey secretKey) {
+      final Mac mac = Mac.getInstance(algorithm);
+      mac.init(secretKey);
+      return MessageDigest.isEqual(mac.doFinal(signingInput), tokenSignature);
+    }
+
+    final Signature signature = Signature.getInstance(algorithm);
+    signature.initVerify((PublicKey) key);
+    signature.update(signingInput);
+    return signature.verify(tokenSignature);
+  }
+
+  // audience is optional, when present it has to name the app id being accessed
+  private static boolean isAudienceValid(final JsonNode audience, final int appId) {
+    if (audience.isMissingNode() || audience.isNull()) {
+      return true;
+    }
+    final String appIdText = String.valueOf(appId);
+    if (audience.isArray()) {
+      for (final JsonNode audienceItem : audience) {
+        if (appIdText.equals(audienceItem.asText())) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return appIdText.equals(audience.asText());
+  }
+}
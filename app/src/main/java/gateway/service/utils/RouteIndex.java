@@ -0,0 +1,88 @@
+package gateway.service.utils;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// immutable lookup structure compiled from env details on every refresh, matching a request
+// costs one hash lookup plus one walk of its path, regardless of how many routes are configured
+public class RouteIndex {
+  private final Map<String, String> targetBaseUrls;
+  private final PrefixTrie authExclusions;
+  private final PrefixTrie basicAuthApis;
+
+  public RouteIndex(
+      final Map<String, String> routesMap,
+      final List<String> authExclusions,
+      final List<String> basicAuthApis) {
+    this.targetBaseUrls = Map.copyOf(routesMap);
+    this.authExclusions = new PrefixTrie(authExclusions);
+    this.basicAuthApis = new PrefixTrie(basicAuthApis);
+  }
+
+  public String getTargetBaseUrl(final String apiName) {
+    return targetBaseUrls.get(apiName);
+  }
+
+  // null when there is no route for the api name
+  public RouteMatch match(final String apiName, final String requestUri) {
+    final String targetBaseUrl = targetBaseUrls.get(apiName);
+    if (targetBaseUrl == null) {
+      return null;
+    }
+    // transform /gatewaysvc/tests/api to /tests/api
+    final String requestUriLessApiName = requestUri.replace("/" + apiName, "");
+    return new RouteMatch(
+        apiName,
+        targetBaseUrl,
+        requestUriLessApiName,
+        authExclusions.matchesPrefixOf(requestUriLessApiName),
+        basicAuthApis.matchesPrefixOf(requestUri),
+        Common.isCheckPermissions(requestUri));
+  }
+
+  public int size() {
+    return targetBaseUrls.size();
+  }
+
+  public record RouteMatch(
+      String apiName,
+      String targetBaseUrl,
+      String requestUriLessApiName,
+      boolean isNoAuth,
+      boolean isBasicAuth,
+      boolean isCheckPermissions)
+      implements Serializable {}
+
+  // true when any of the configured prefixes is a prefix of the value, ie: startsWith
+  private static class PrefixTrie {
+    private final Node root = new Node();
+
+    private PrefixTrie(final List<String> prefixes) {
+      for (final String prefix : prefixes) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+          node = node.children.computeIfAbsent(prefix.charAt(i), character -> new Node());
+        }
+        node.isPrefixEnd = true;
+      }
+    }
+
+    private boolean matchesPrefixOf(final String value) {
+      Node node = root;
+      for (int i = 0; i < value.length() && !node.isPrefixEnd; i++) {
+        node = node.children.get(value.charAt(i));
+        if (node == null) {
+          return false;
+        }
+      }
+      return node.isPrefixEnd;
+    }
+
+    private static class Node {
+      private final Map<Character, Node> children = new HashMap<>();
+      private boolean isPrefixEnd = false;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package gateway.service.utils;
+
+import gateway.service.dtos.RouteConfig;
+import java.security.Key;
+import java.util.List;
+import java.util.Map;
+
+// everything loaded from env details in one routes refresh, never modified once published
+public record RouteSnapshot(
+    long version,
+    Map<String, String> sectionHashes,
+    Map<String, String> routesMap,
+    List<String> authExclusions,
+    List<String> basicAuthApis,
+    Map<String, String> authApps,
+    Map<String, String> authHeaders,
+    List<String> proxyHeaders,
+    Map<String, RouteConfig> routeConfigs,
+    Map<String, Key> jwtKeys,
+    RouteIndex routeIndex) {
+
+  public static RouteSnapshot empty() {
+    return new RouteSnapshot(
+        0,
+        Map.of(),
+        Map.of(),
+        List.of(),
+        List.of(),
+        Map.of(),
+        Map.of(),
+        List.of(),
+        Map.of(),
+        Map.of(),
+        new RouteIndex(Map.of(), List.of(), List.of()));
+  }
+
+  public String getAuthHeader(final String apiName) {
+    return authHeaders.get(apiName);
+  }
+
+  public RouteConfig getRouteConfig(final String apiName) {
+    final RouteConfig routeConfig = routeConfigs.get(apiName);
+    return routeConfig == null ? new RouteConfig(apiName, Map.of()) : routeConfig;
+  }
+}
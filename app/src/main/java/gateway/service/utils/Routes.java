@@ -1,15 +1,36 @@
 package gateway.service.utils;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import gateway.service.dtos.RouteConfig;
+import gateway.service.proxy.ProxyClient;
+import gateway.service.proxy.UpstreamGroup;
 import io.github.bibekaryal86.shdsvc.AppEnvProperty;
 import io.github.bibekaryal86.shdsvc.Secrets;
 import io.github.bibekaryal86.shdsvc.dtos.EnvDetailsResponse;
 import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
-import java.util.ArrayList;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Key;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,142 +38,415 @@ import org.slf4j.LoggerFactory;
 public class Routes {
   private static final Logger logger = LoggerFactory.getLogger(Routes.class);
 
-  private static Timer timer;
-  private static Map<String, String> ROUTES_MAP = new HashMap<>();
-  private static List<String> AUTH_EXCLUSIONS = new ArrayList<>();
-  private static List<String> BASIC_AUTH_APIS = new ArrayList<>();
-  private static Map<String, String> AUTH_APPS = new HashMap<>();
-  private static List<String> PROXY_HEADERS = new ArrayList<>();
+  private static final ScheduledExecutorService REFRESH_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "routes-refresh");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private static final AtomicBoolean IS_REFRESH_STARTED = new AtomicBoolean();
+  private static final AtomicBoolean IS_REFRESH_PENDING = new AtomicBoolean();
+  private static final AtomicLong REFRESHES = new AtomicLong();
+  private static final AtomicLong REFRESH_FAILURES = new AtomicLong();
+  private static final AtomicLong CONSECUTIVE_FAILURES = new AtomicLong();
+  private static final AtomicLong LAST_REFRESH_MILLIS = new AtomicLong();
+  private static final AtomicLong LAST_REFRESH_AT = new AtomicLong();
+  private static final AtomicLong LAST_SUCCESS_AT = new AtomicLong();
+  private static final AtomicLong NEXT_REFRESH_AT = new AtomicLong();
+  // readers take one snapshot and use it for the whole request, refresh replaces it at once
+  private static final AtomicReference<RouteSnapshot> ROUTE_SNAPSHOT =
+      new AtomicReference<>(RouteSnapshot.empty());
+  private static final AtomicLong ROUTE_SNAPSHOT_VERSION = new AtomicLong();
+  // last known good env details, secrets are kept as encrypted by env service
+  // it decides where traffic goes, so it is kept in a directory of the service user
+  private static final Path ROUTES_CACHE_FILE =
+      Path.of(System.getProperty("user.home"))
+          .resolve(
+              CommonUtilities.getSystemEnvProperty(
+                  Constants.ENV_ROUTES_CACHE_FILE, Constants.ENV_ROUTES_CACHE_FILE_DEFAULT));
 
-  public static void init() {
+  // returns false when env details could not be retrieved, current routes are kept then
+  public static boolean init() {
     logger.debug("Retrieving Env Details...");
-    List<EnvDetailsResponse.EnvDetails> envDetailsList =
-        AppEnvProperty.getEnvDetailsList(Constants.THIS_APP_NAME, Boolean.TRUE);
-    setAuthExclusions(envDetailsList);
-    setBasicAuthApis(envDetailsList);
-    setRoutesMap(envDetailsList);
-    setAuthApps(envDetailsList);
-    setProxyHeaders(envDetailsList);
-  }
+    try {
+      final List<EnvDetailsResponse.EnvDetails> envDetailsList =
+          AppEnvProperty.getEnvDetailsList(Constants.THIS_APP_NAME, Boolean.TRUE);
+      if (CommonUtilities.isEmpty(envDetailsList)) {
+        logger.error("Env Details Empty, Keeping Routes Version: [{}]", getSnapshot().version());
+        return false;
+      }
 
-  public static String getTargetBaseUrl(String apiName) {
-    for (final String route : ROUTES_MAP.keySet()) {
-      if (apiName.equals(route)) {
-        return ROUTES_MAP.get(route);
+      final Map<String, EnvSection> envSections =
+          envDetailsList.stream()
+              .collect(
+                  Collectors.toMap(
+                      EnvDetailsResponse.EnvDetails::getName,
+                      envDetail ->
+                          new EnvSection(envDetail.getListValue(), envDetail.getMapValue()),
+                      (first, second) -> first));
+      if (update(envSections)) {
+        writeRoutesCache(envSections);
       }
+      return true;
+    } catch (Exception ex) {
+      logger.error("Env Details Error, Keeping Routes Version: [{}]", getSnapshot().version(), ex);
+      return false;
     }
-    return null;
-  }
-
-  public static Map<String, String> getRoutesMap() {
-    return ROUTES_MAP;
   }
 
-  public static List<String> getAuthExclusions() {
-    return AUTH_EXCLUSIONS;
+  // cold start, serve with the last known good routes until env service answers
+  public static void initFromCache() {
+    if (!Files.exists(ROUTES_CACHE_FILE)) {
+      return;
+    }
+    try {
+      if (!isTrustedRoutesCache()) {
+        logger.error("Routes Cache Not Trusted, Not Owner Only Writable: [{}]", ROUTES_CACHE_FILE);
+        return;
+      }
+      final Map<String, EnvSection> envSections =
+          CommonUtilities.objectMapperProvider()
+              .readValue(
+                  ROUTES_CACHE_FILE.toFile(), new TypeReference<Map<String, EnvSection>>() {});
+      update(envSections);
+      logger.info("Routes Loaded From Cache: [{}]", ROUTES_CACHE_FILE);
+    } catch (Exception ex) {
+      logger.error("Routes Cache Not Readable: [{}]", ROUTES_CACHE_FILE, ex);
+    }
   }
 
-  public static List<String> getBasicAuthApis() {
-    return BASIC_AUTH_APIS;
+  public static RouteSnapshot getSnapshot() {
+    return ROUTE_SNAPSHOT.get();
   }
 
-  public static Map<String, String> getAuthApps() {
-    return AUTH_APPS;
+  public static String getTargetBaseUrl(String apiName) {
+    return getSnapshot().routeIndex().getTargetBaseUrl(apiName);
   }
 
-  public static List<String> getProxyHeaders() {
-    return PROXY_HEADERS;
+  public static Map<String, Key> getJwtKeys() {
+    return getSnapshot().jwtKeys();
   }
 
-  // Refresh routes periodically
+  // Refresh routes periodically, only the first call starts the schedule
   public static void refreshRoutes() {
-    logger.info("Starting Routes Timer...");
-    timer = new Timer();
-    timer.schedule(
-        new TimerTask() {
-          @Override
-          public void run() {
-            init();
-          }
-        },
-        0,
-        Constants.ROUTES_REFRESH_INTERVAL);
+    if (!IS_REFRESH_STARTED.compareAndSet(false, true)) {
+      return;
+    }
+    logger.info("Starting Routes Refresh...");
+    REFRESH_EXECUTOR.execute(Routes::scheduledRefresh);
 
     Runtime.getRuntime()
         .addShutdownHook(
             new Thread(
                 () -> {
-                  logger.info("Stopping Routes Timer...");
-                  if (timer != null) {
-                    timer.cancel();
-                    timer.purge();
-                    timer = null;
-                  }
+                  logger.info("Stopping Routes Refresh...");
+                  REFRESH_EXECUTOR.shutdownNow();
                 }));
   }
 
-  private static void setAuthExclusions(final List<EnvDetailsResponse.EnvDetails> envDetailsList) {
-    AUTH_EXCLUSIONS =
-        envDetailsList.stream()
-            .filter(envDetail -> envDetail.getName().equals(Constants.AUTH_EXCLUSIONS_NAME))
-            .findFirst()
-            .orElseThrow()
-            .getListValue();
-    logger.debug("Gateway Service Env Details Auth Exclusions Size: [{}]", AUTH_EXCLUSIONS.size());
-  }
-
-  private static void setBasicAuthApis(final List<EnvDetailsResponse.EnvDetails> envDetailsList) {
-    BASIC_AUTH_APIS =
-        envDetailsList.stream()
-            .filter(envDetail -> envDetail.getName().equals(Constants.BASIC_AUTH_NAME))
-            .findFirst()
-            .orElseThrow()
-            .getListValue();
-    logger.debug("Gateway Service Env Details Basic Auth Apis Size: [{}]", BASIC_AUTH_APIS.size());
-  }
-
-  private static void setRoutesMap(final List<EnvDetailsResponse.EnvDetails> envDetailsList) {
-    ROUTES_MAP =
-        envDetailsList.stream()
-            .filter(
-                envDetail ->
-                    envDetail
-                        .getName()
-                        .equals(
-                            String.format(
-                                "%s_%s",
-                                Constants.BASE_URLS_NAME_BEGINS_WITH,
-                                CommonUtilities.getSystemEnvProperty(
-                                        Constants.SPRING_PROFILES_ACTIVE)
-                                    .toUpperCase())))
-            .findFirst()
-            .orElseThrow()
-            .getMapValue();
-    logger.debug("Gateway Service Env Details Routes Map Size: [{}]", ROUTES_MAP.size());
-  }
-
-  private static void setAuthApps(final List<EnvDetailsResponse.EnvDetails> envDetailsList) {
-    AUTH_APPS =
-        envDetailsList.stream()
-            .filter(envDetail -> envDetail.getName().equals(Constants.AUTH_APPS_NAME))
-            .findFirst()
-            .orElseThrow()
-            .getMapValue()
-            .entrySet()
-            .stream()
+  // one immediate refresh on the same thread as the schedule, requests while one is pending
+  // are merged into it
+  public static void refreshNow() {
+    if (IS_REFRESH_PENDING.compareAndSet(false, true)) {
+      REFRESH_EXECUTOR.execute(
+          () -> {
+            IS_REFRESH_PENDING.set(false);
+            refresh();
+          });
+    }
+  }
+
+  public static Map<String, Object> getRefreshStats() {
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("version", getSnapshot().version());
+    stats.put("refreshes", REFRESHES.get());
+    stats.put("failures", REFRESH_FAILURES.get());
+    stats.put("consecutiveFailures", CONSECUTIVE_FAILURES.get());
+    stats.put("lastRefreshMillis", LAST_REFRESH_MILLIS.get());
+    stats.put("lastRefreshAt", LAST_REFRESH_AT.get());
+    stats.put("lastSuccessAt", LAST_SUCCESS_AT.get());
+    stats.put("nextRefreshAt", NEXT_REFRESH_AT.get());
+    return stats;
+  }
+
+  private static void scheduledRefresh() {
+    final boolean isRefreshed = refresh();
+    // jitter spreads gateway instances apart, backoff keeps a failing env service from being hit
+    final long delayMillis =
+        isRefreshed
+            ? Constants.ROUTES_REFRESH_INTERVAL
+            : Math.min(
+                Constants.ROUTES_REFRESH_INTERVAL,
+                Constants.ROUTES_REFRESH_BACKOFF_MILLIS
+                    << Math.min(CONSECUTIVE_FAILURES.get() - 1, 10));
+    final long jitterMillis =
+        (long)
+            (delayMillis
+                * Constants.ROUTES_REFRESH_JITTER
+                * (ThreadLocalRandom.current().nextDouble() * 2 - 1));
+    NEXT_REFRESH_AT.set(System.currentTimeMillis() + delayMillis + jitterMillis);
+    try {
+      REFRESH_EXECUTOR.schedule(
+          Routes::scheduledRefresh, delayMillis + jitterMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ex) {
+      logger.debug("Routes Refresh Stopped...");
+    }
+  }
+
+  private static boolean refresh() {
+    final long startTime = System.nanoTime();
+    final boolean isRefreshed = init();
+    LAST_REFRESH_MILLIS.set((System.nanoTime() - startTime) / 1_000_000);
+    LAST_REFRESH_AT.set(System.currentTimeMillis());
+    REFRESHES.incrementAndGet();
+    if (isRefreshed) {
+      CONSECUTIVE_FAILURES.set(0);
+      LAST_SUCCESS_AT.set(System.currentTimeMillis());
+    } else {
+      REFRESH_FAILURES.incrementAndGet();
+      CONSECUTIVE_FAILURES.incrementAndGet();
+    }
+    return isRefreshed;
+  }
+
+  // only sections whose content changed are rebuilt, returns false when nothing changed
+  private static synchronized boolean update(final Map<String, EnvSection> envSections) {
+    final RouteSnapshot previous = getSnapshot();
+    final Map<String, String> sectionHashes = new HashMap<>();
+    envSections.forEach((name, envSection) -> sectionHashes.put(name, getSectionHash(envSection)));
+    if (sectionHashes.equals(previous.sectionHashes())) {
+      logger.debug("Env Details Unchanged, Routes Version: [{}]", previous.version());
+      return false;
+    }
+
+    final String routesName = getRoutesName();
+    final boolean isAuthExclusionsChanged =
+        isChanged(Constants.AUTH_EXCLUSIONS_NAME, sectionHashes, previous);
+    final boolean isBasicAuthApisChanged =
+        isChanged(Constants.BASIC_AUTH_NAME, sectionHashes, previous);
+    final boolean isRoutesMapChanged = isChanged(routesName, sectionHashes, previous);
+    final boolean isAuthAppsChanged = isChanged(Constants.AUTH_APPS_NAME, sectionHashes, previous);
+
+    final List<String> authExclusions =
+        isAuthExclusionsChanged
+            ? getListValue(envSections, Constants.AUTH_EXCLUSIONS_NAME, previous.authExclusions())
+            : previous.authExclusions();
+    final List<String> basicAuthApis =
+        isBasicAuthApisChanged
+            ? getListValue(envSections, Constants.BASIC_AUTH_NAME, previous.basicAuthApis())
+            : previous.basicAuthApis();
+    final Map<String, String> routesMap =
+        isRoutesMapChanged
+            ? getMapValue(envSections, routesName, previous.routesMap())
+            : previous.routesMap();
+    final Map<String, String> authApps =
+        isAuthAppsChanged ? getAuthApps(envSections, previous) : previous.authApps();
+    final List<String> proxyHeaders =
+        isChanged(Constants.PROXY_HEADERS, sectionHashes, previous)
+            ? getListValue(envSections, Constants.PROXY_HEADERS, previous.proxyHeaders())
+            : previous.proxyHeaders();
+    final Map<String, RouteConfig> routeConfigs =
+        isRoutesMapChanged || isChanged(Constants.ROUTE_CONFIGS_NAME, sectionHashes, previous)
+            ? getRouteConfigs(envSections, routesMap)
+            : previous.routeConfigs();
+    final Map<String, Key> jwtKeys =
+        isChanged(Constants.JWT_KEYS_NAME, sectionHashes, previous)
+            ? getJwtKeys(envSections)
+            : previous.jwtKeys();
+    final RouteIndex routeIndex =
+        isRoutesMapChanged || isAuthExclusionsChanged || isBasicAuthApisChanged
+            ? new RouteIndex(routesMap, authExclusions, basicAuthApis)
+            : previous.routeIndex();
+
+    final RouteSnapshot routeSnapshot =
+        new RouteSnapshot(
+            ROUTE_SNAPSHOT_VERSION.incrementAndGet(),
+            Map.copyOf(sectionHashes),
+            routesMap,
+            authExclusions,
+            basicAuthApis,
+            authApps,
+            isAuthAppsChanged ? getAuthHeaders(authApps) : previous.authHeaders(),
+            proxyHeaders,
+            routeConfigs,
+            jwtKeys,
+            routeIndex);
+    ROUTE_SNAPSHOT.set(routeSnapshot);
+    logger.info("Gateway Service Routes Snapshot Version: [{}]", routeSnapshot.version());
+    // upstream state of routes that are gone is not kept around
+    UpstreamGroup.retainRoutes(routeConfigs.keySet());
+    ProxyClient.retainRoutes(routeConfigs.keySet());
+    return true;
+  }
+
+  private static boolean isChanged(
+      final String name, final Map<String, String> sectionHashes, final RouteSnapshot previous) {
+    return !Objects.equals(sectionHashes.get(name), previous.sectionHashes().get(name));
+  }
+
+  private static String getSectionHash(final EnvSection envSection) {
+    // sorted so that the same content always hashes the same regardless of map order
+    final Map<String, String> mapValue =
+        envSection.mapValue() == null ? null : new TreeMap<>(envSection.mapValue());
+    return Common.getSha256Hex(
+        CommonUtilities.writeValueAsStringNoEx(new EnvSection(envSection.listValue(), mapValue)));
+  }
+
+  // a regular file of the service user that nobody else can write, symlinks are not followed
+  private static boolean isTrustedRoutesCache() throws Exception {
+    final PosixFileAttributes attributes =
+        Files.readAttributes(
+            ROUTES_CACHE_FILE, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    return attributes.isRegularFile()
+        && attributes
+            .owner()
+            .equals(
+                FileSystems.getDefault()
+                    .getUserPrincipalLookupService()
+                    .lookupPrincipalByName(System.getProperty("user.name")))
+        && !attributes.permissions().contains(PosixFilePermission.GROUP_WRITE)
+        && !attributes.permissions().contains(PosixFilePermission.OTHERS_WRITE);
+  }
+
+  // temp file gets a random name and owner only permissions, then replaces the cache at once
+  private static void writeRoutesCache(final Map<String, EnvSection> envSections) {
+    Path tempFile = null;
+    try {
+      final Path cacheDir = ROUTES_CACHE_FILE.toAbsolutePath().getParent();
+      Files.createDirectories(
+          cacheDir,
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+      tempFile =
+          Files.createTempFile(
+              cacheDir,
+              ROUTES_CACHE_FILE.getFileName().toString(),
+              ".tmp",
+              PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+      Files.writeString(tempFile, CommonUtilities.writeValueAsStringNoEx(envSections));
+      Files.move(
+          tempFile,
+          ROUTES_CACHE_FILE,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (Exception ex) {
+      logger.error("Routes Cache Not Writable: [{}]", ROUTES_CACHE_FILE, ex);
+    } finally {
+      deleteQuietly(tempFile);
+    }
+  }
+
+  private static void deleteQuietly(final Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (Exception ex) {
+      logger.error("Routes Cache Temp File Not Deleted: [{}]", path, ex);
+    }
+  }
+
+  private static String getRoutesName() {
+    return String.format(
+        "%s_%s",
+        Constants.BASE_URLS_NAME_BEGINS_WITH,
+        CommonUtilities.getSystemEnvProperty(Constants.SPRING_PROFILES_ACTIVE).toUpperCase());
+  }
+
+  // required sections missing from env details keep their previous value instead of failing
+  private static List<String> getListValue(
+      final Map<String, EnvSection> envSections,
+      final String name,
+      final List<String> previousValue) {
+    final EnvSection envSection = envSections.get(name);
+    if (envSection == null || envSection.listValue() == null) {
+      logger.error("Gateway Service Env Details Missing: [{}]", name);
+      return previousValue;
+    }
+    logger.debug(
+        "Gateway Service Env Details [{}] Size: [{}]", name, envSection.listValue().size());
+    return List.copyOf(envSection.listValue());
+  }
+
+  private static Map<String, String> getMapValue(
+      final Map<String, EnvSection> envSections,
+      final String name,
+      final Map<String, String> previousValue) {
+    final EnvSection envSection = envSections.get(name);
+    if (envSection == null || envSection.mapValue() == null) {
+      logger.error("Gateway Service Env Details Missing: [{}]", name);
+      return previousValue;
+    }
+    logger.debug("Gateway Service Env Details [{}] Size: [{}]", name, envSection.mapValue().size());
+    return Map.copyOf(envSection.mapValue());
+  }
+
+  private static Map<String, String> getAuthApps(
+      final Map<String, EnvSection> envSections, final RouteSnapshot previous) {
+    final Map<String, String> authApps = getMapValue(envSections, Constants.AUTH_APPS_NAME, null);
+    if (authApps == null) {
+      return previous.authApps();
+    }
+    return authApps.entrySet().stream()
+        .collect(
+            Collectors.toUnmodifiableMap(
+                Map.Entry::getKey, entry -> Secrets.decryptSecret(entry.getValue())));
+  }
+
+  // apiName to ready to use authorization header
+  private static Map<String, String> getAuthHeaders(final Map<String, String> authApps) {
+    final Map<String, String> authHeaders = new HashMap<>();
+    authApps.forEach(
+        (key, appUsername) -> {
+          if (!key.endsWith(Constants.AUTH_APPS_USR)) {
+            return;
+          }
+          final String apiName = key.substring(0, key.length() - Constants.AUTH_APPS_USR.length());
+          final String appPassword = authApps.get(apiName + Constants.AUTH_APPS_PWD);
+          if (!CommonUtilities.isEmpty(appUsername) && !CommonUtilities.isEmpty(appPassword)) {
+            authHeaders.put(apiName, CommonUtilities.getBasicAuth(appUsername, appPassword));
+          }
+        });
+    logger.debug("Gateway Service Env Details Auth Headers Size: [{}]", authHeaders.size());
+    return Map.copyOf(authHeaders);
+  }
+
+  // optional, every route falls back to gateway defaults when not configured
+  private static Map<String, RouteConfig> getRouteConfigs(
+      final Map<String, EnvSection> envSections, final Map<String, String> routesMap) {
+    final EnvSection envSection = envSections.get(Constants.ROUTE_CONFIGS_NAME);
+    final Map<String, String> routeConfigs =
+        envSection == null || envSection.mapValue() == null ? Map.of() : envSection.mapValue();
+    final Map<String, RouteConfig> routeConfigsByApiName =
+        routesMap.keySet().stream()
             .collect(
                 Collectors.toMap(
-                    Map.Entry::getKey, entry -> Secrets.decryptSecret(entry.getValue())));
-    logger.debug("Gateway Service Env Details Auth Map Size: [{}]", AUTH_APPS.size());
+                    apiName -> apiName, apiName -> new RouteConfig(apiName, routeConfigs)));
+    logger.debug(
+        "Gateway Service Env Details Route Configs Size: [{}]", routeConfigsByApiName.size());
+    return Map.copyOf(routeConfigsByApiName);
   }
 
-  private static void setProxyHeaders(final List<EnvDetailsResponse.EnvDetails> envDetailsList) {
-    PROXY_HEADERS =
-        envDetailsList.stream()
-            .filter(envDetail -> envDetail.getName().equals(Constants.PROXY_HEADERS))
-            .findFirst()
-            .orElseThrow()
-            .getListValue();
-    logger.debug("Gateway Service Env Details Proxy Headers Size: [{}]", PROXY_HEADERS.size());
+  // optional, rotated keys are picked up on refresh and unknown key ids go to auth service
+  private static Map<String, Key> getJwtKeys(final Map<String, EnvSection> envSections) {
+    final EnvSection envSection = envSections.get(Constants.JWT_KEYS_NAME);
+    final Map<String, Key> jwtKeys = new HashMap<>();
+    if (envSection != null && envSection.mapValue() != null) {
+      envSection
+          .mapValue()
+          .forEach(
+              (keyId, keyValue) -> {
+                final Key key = JwtVerifier.getVerificationKey(keyId, keyValue);
+                if (key != null) {
+                  jwtKeys.put(keyId, key);
+                }
+              });
+    }
+    logger.debug("Gateway Service Env Details Jwt Keys Size: [{}]", jwtKeys.size());
+    return Map.copyOf(jwtKeys);
   }
+
+  // the parts of an env detail the gateway uses, also the on disk cache format
+  record EnvSection(List<String> listValue, Map<String, String> mapValue) {}
 }
@@ -0,0 +1,160 @@
+package gateway.service.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import gateway.service.dtos.ValidatedToken;
+import io.github.bibekaryal86.shdsvc.Secrets;
+import io.github.bibekaryal86.shdsvc.dtos.AuthToken;
+import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// successful token validations, keyed by token hash and app id so raw tokens are never kept
+public class TokenCache {
+  private static final Logger logger = LoggerFactory.getLogger(TokenCache.class);
+
+  private static final long TTL_MILLIS =
+      Long.parseLong(
+              CommonUtilities.getSystemEnvProperty(
+                  Constants.ENV_TOKEN_CACHE_TTL_SECONDS,
+                  Constants.ENV_TOKEN_CACHE_TTL_SECONDS_DEFAULT))
+          * 1000;
+  private static final int MAX_SIZE =
+      Integer.parseInt(
+          CommonUtilities.getSystemEnvProperty(
+              Constants.ENV_TOKEN_CACHE_MAX_SIZE, Constants.ENV_TOKEN_CACHE_MAX_SIZE_DEFAULT));
+
+  private static final Map<String, CachedToken> CACHE = new ConcurrentHashMap<>();
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+  private static final LongAdder EXPIRATIONS = new LongAdder();
+  private static final LongAdder EVICTIONS = new LongAdder();
+
+  public static ValidatedToken get(final String token, final int appId) {
+    final String cacheKey = getCacheKey(token, appId);
+    final CachedToken cachedToken = CACHE.get(cacheKey);
+    if (cachedToken == null) {
+      MISSES.increment();
+      return null;
+    }
+    if (cachedToken.expiresAtMillis() <= System.currentTimeMillis()) {
+      if (CACHE.remove(cacheKey, cachedToken)) {
+        EXPIRATIONS.increment();
+      }
+      MISSES.increment();
+      return null;
+    }
+    HITS.increment();
+    return cachedToken.validatedToken();
+  }
+
+  // signs the auth token here so repeat requests reuse the same x-auth-token until it expires
+  public static ValidatedToken put(final String token, final int appId, final AuthToken authToken) {
+    final ValidatedToken validatedToken =
+        new ValidatedToken(authToken, Secrets.encodeAndSign(authToken));
+    final long expiresAtMillis = getExpiresAtMillis(token);
+    if (expiresAtMillis <= System.currentTimeMillis()) {
+      return validatedToken;
+    }
+    if (CACHE.size() >= MAX_SIZE) {
+      evict();
+    }
+    CACHE.put(getCacheKey(token, appId), new CachedToken(validatedToken, expiresAtMillis));
+    return validatedToken;
+  }
+
+  // eg: on logout or revocation, all app ids the token was validated for
+  public static void invalidate(final String token) {
+    final String tokenHash = getTokenHash(token);
+    CACHE.keySet().removeIf(cacheKey -> cacheKey.startsWith(tokenHash));
+  }
+
+  public static void invalidateAll() {
+    logger.info("Invalidating Token Cache: [{}]", CACHE.size());
+    CACHE.clear();
+  }
+
+  public static Map<String, Object> getStats() {
+    final long hits = HITS.sum();
+    final long misses = MISSES.sum();
+
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("size", CACHE.size());
+    stats.put("maxSize", MAX_SIZE);
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+    stats.put("expirations", EXPIRATIONS.sum());
+    stats.put("evictions", EVICTIONS.sum());
+    return stats;
+  }
+
+  // drop expired entries first, if none then the ones closest to expiry among a small sample
+  private static void evict() {
+    final long now = System.currentTimeMillis();
+    int sampled = 0;
+    String evictKey = null;
+    long evictExpiresAtMillis = Long.MAX_VALUE;
+
+    final Iterator<Map.Entry<String, CachedToken>> iterator = CACHE.entrySet().iterator();
+    while (iterator.hasNext() && sampled < Constants.TOKEN_CACHE_EVICTION_SAMPLE) {
+      final Map.Entry<String, CachedToken> entry = iterator.next();
+      sampled++;
+      if (entry.getValue().expiresAtMillis() <= now) {
+        iterator.remove();
+        EXPIRATIONS.increment();
+        return;
+      }
+      if (entry.getValue().expiresAtMillis() < evictExpiresAtMillis) {
+        evictKey = entry.getKey();
+        evictExpiresAtMillis = entry.getValue().expiresAtMillis();
+      }
+    }
+    if (evictKey != null && CACHE.remove(evictKey) != null) {
+      EVICTIONS.increment();
+    }
+  }
+
+  // token's own expiry claim when it is a jwt, capped by the configured ttl
+  private static long getExpiresAtMillis(final String token) {
+    final long ttlExpiresAtMillis = System.currentTimeMillis() + TTL_MILLIS;
+    final String[] tokenParts = stripBearer(token).split("\\.");
+    if (tokenParts.length != 3) {
+      return ttlExpiresAtMillis;
+    }
+    try {
+      final JsonNode claims =
+          CommonUtilities.objectMapperProvider()
+              .readTree(Base64.getUrlDecoder().decode(tokenParts[1]));
+      final JsonNode expiry = claims.get("exp");
+      if (expiry == null || !expiry.canConvertToLong()) {
+        return ttlExpiresAtMillis;
+      }
+      return Math.min(ttlExpiresAtMillis, expiry.asLong() * 1000);
+    } catch (Exception ex) {
+      logger.debug("Token Expiry Claim Not Readable...", ex);
+      return ttlExpiresAtMillis;
+    }
+  }
+
+  static String getCacheKey(final String token, final int appId) {
+    return getTokenHash(token) + ":" + appId;
+  }
+
+  static String getTokenHash(final String token) {
+    return Common.getSha256Hex(token);
+  }
+
+  static String stripBearer(final String token) {
+    return token.startsWith(Constants.BEARER_AUTH)
+        ? token.substring(Constants.BEARER_AUTH.length())
+        : token;
+  }
+
+  private record CachedToken(ValidatedToken validatedToken, long expiresAtMillis) {}
+}
@@ -1,26 +1,211 @@
 package gateway.service.utils;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import gateway.service.dtos.ValidatedToken;
 import io.github.bibekaryal86.shdsvc.Connector;
 import io.github.bibekaryal86.shdsvc.dtos.AuthToken;
 import io.github.bibekaryal86.shdsvc.dtos.Enums;
 import io.github.bibekaryal86.shdsvc.dtos.HttpResponse;
 import io.github.bibekaryal86.shdsvc.helpers.CommonUtilities;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Validate {
+  private static final Logger logger = LoggerFactory.getLogger(Validate.class);
 
   private static final String VALIDATE_TOKEN_API =
       CommonUtilities.getSystemEnvProperty(Constants.VALIDATE_TOKEN_URL);
+  private static final long VALIDATE_TOKEN_TIMEOUT_MILLIS =
+      Long.parseLong(
+          CommonUtilities.getSystemEnvProperty(
+              Constants.ENV_VALIDATE_TOKEN_TIMEOUT_MILLIS,
+              Constants.ENV_VALIDATE_TOKEN_TIMEOUT_MILLIS_DEFAULT));
+  private static final int VALIDATE_TOKEN_MAX_CONCURRENCY =
+      Integer.parseInt(
+          CommonUtilities.getSystemEnvProperty(
+              Constants.ENV_VALIDATE_TOKEN_MAX_CONCURRENCY,
+              Constants.ENV_VALIDATE_TOKEN_MAX_CONCURRENCY_DEFAULT));
 
-  public static HttpResponse<AuthToken> validateToken(
+  // auth service calls block, so they run on virtual threads and never on the event loop
+  private static final ExecutorService VALIDATE_EXECUTOR =
+      Executors.newVirtualThreadPerTaskExecutor();
+  private static final Semaphore VALIDATE_PERMITS = new Semaphore(VALIDATE_TOKEN_MAX_CONCURRENCY);
+  // one auth service call per token and app id, concurrent validations share its result
+  private static final Map<String, CompletableFuture<ValidatedToken>> IN_FLIGHT =
+      new ConcurrentHashMap<>();
+
+  private static final LongAdder CALLS = new LongAdder();
+  private static final LongAdder COALESCED = new LongAdder();
+  private static final LongAdder REJECTED = new LongAdder();
+  private static final LongAdder TIMEOUTS = new LongAdder();
+
+  // completes with null when the token is not valid, exceptionally when it could not be validated
+  public static CompletableFuture<ValidatedToken> validateTokenAsync(
       final String tokenToValidate, final int appIdToValidate) {
-    final String validateTokenApiUrl = String.format(VALIDATE_TOKEN_API, appIdToValidate);
-    return Connector.sendRequest(
-        validateTokenApiUrl,
-        Enums.HttpMethod.GET,
-        new TypeReference<AuthToken>() {},
-        tokenToValidate,
-        null,
-        null);
+    final ValidatedToken cachedToken = TokenCache.get(tokenToValidate, appIdToValidate);
+    if (cachedToken != null) {
+      return CompletableFuture.completedFuture(cachedToken);
+    }
+
+    if (JwtVerifier.isEnabled()) {
+      final JwtVerifier.Verification verification =
+          JwtVerifier.verify(tokenToValidate, appIdToValidate);
+      switch (verification.status()) {
+        case VERIFIED -> {
+          final ValidatedToken validatedToken =
+              TokenCache.put(tokenToValidate, appIdToValidate, verification.authToken());
+          checkRevocation(tokenToValidate, appIdToValidate);
+          return CompletableFuture.completedFuture(validatedToken);
+        }
+        case REJECTED -> {
+          return CompletableFuture.completedFuture(null);
+        }
+        case UNKNOWN -> {}
+      }
+    }
+
+    return validateTokenRemoteAsync(tokenToValidate, appIdToValidate);
+  }
+
+  public static Map<String, Object> getStats() {
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("inFlight", IN_FLIGHT.size());
+    stats.put("maxConcurrency", VALIDATE_TOKEN_MAX_CONCURRENCY);
+    stats.put("availablePermits", VALIDATE_PERMITS.availablePermits());
+    stats.put("calls", CALLS.sum());
+    stats.put("coalesced", COALESCED.sum());
+    stats.put("rejected", REJECTED.sum());
+    stats.put("timeouts", TIMEOUTS.sum());
+    return stats;
+  }
+
+  private static CompletableFuture<ValidatedToken> validateTokenRemoteAsync(
+      final String tokenToValidate, final int appIdToValidate) {
+    final String cacheKey = TokenCache.getCacheKey(tokenToValidate, appIdToValidate);
+    final CompletableFuture<ValidatedToken> future = new CompletableFuture<>();
+    final CompletableFuture<ValidatedToken> inFlightFuture =
+        IN_FLIGHT.putIfAbsent(cacheKey, future);
+    if (inFlightFuture != null) {
+      COALESCED.increment();
+      return inFlightFuture;
+    }
+
+    final RemoteCall remoteCall = new RemoteCall();
+    future
+        .orTimeout(VALIDATE_TOKEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+        .whenComplete(
+            (validatedToken, throwable) -> {
+              IN_FLIGHT.remove(cacheKey, future);
+              if (throwable instanceof TimeoutException) {
+                TIMEOUTS.increment();
+                remoteCall.cancel();
+              }
+            });
+
+    try {
+      VALIDATE_EXECUTOR.execute(
+          () -> {
+            try {
+              future.complete(validateToken(tokenToValidate, appIdToValidate, remoteCall));
+            } catch (Exception ex) {
+              future.completeExceptionally(ex);
+            }
+          });
+    } catch (RejectedExecutionException ex) {
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+
+  // locally verified tokens are still checked with auth service, off the request path, once per
+  // token cache lifetime so that revoked tokens stop verifying locally
+  private static void checkRevocation(final String tokenToValidate, final int appIdToValidate) {
+    validateTokenRemoteAsync(tokenToValidate, appIdToValidate)
+        .whenComplete(
+            (validatedToken, throwable) -> {
+              if (throwable == null && validatedToken == null) {
+                logger.info("Locally Verified Token Revoked...");
+                JwtVerifier.revoke(tokenToValidate);
+                TokenCache.invalidate(tokenToValidate);
+              }
+            });
+  }
+
+  private static ValidatedToken validateToken(
+      final String tokenToValidate, final int appIdToValidate, final RemoteCall remoteCall)
+      throws InterruptedException {
+    // wait for a permit no longer than the caller waits for the result
+    if (!VALIDATE_PERMITS.tryAcquire(VALIDATE_TOKEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+      REJECTED.increment();
+      throw new RejectedExecutionException("Auth Service Concurrency Limit Reached...");
+    }
+
+    remoteCall.isPermitHeld.set(true);
+    remoteCall.thread.set(Thread.currentThread());
+    try {
+      if (remoteCall.isCanceled) {
+        throw new InterruptedException("Auth Service Call Canceled...");
+      }
+      CALLS.increment();
+      final String validateTokenApiUrl = String.format(VALIDATE_TOKEN_API, appIdToValidate);
+      final HttpResponse<AuthToken> authTokenHttpResponse =
+          Connector.sendRequest(
+              validateTokenApiUrl,
+              Enums.HttpMethod.GET,
+              new TypeReference<AuthToken>() {},
+              tokenToValidate,
+              null,
+              null);
+
+      // auth service failing is not the token being invalid, eg: revocation checks
+      if (authTokenHttpResponse.statusCode() >= 500) {
+        throw new IllegalStateException(
+            "Auth Service Error: " + authTokenHttpResponse.statusCode());
+      }
+      // only successful validations are cached, invalid tokens always go to auth service
+      if (authTokenHttpResponse.statusCode() != 200) {
+        return null;
+      }
+      return TokenCache.put(tokenToValidate, appIdToValidate, authTokenHttpResponse.responseBody());
+    } finally {
+      remoteCall.thread.compareAndSet(Thread.currentThread(), null);
+      remoteCall.releasePermit();
+    }
+  }
+
+  // one auth service call, when its caller times out the permit is given back right away and the
+  // blocked call is interrupted, instead of holding the permit until auth service answers
+  private static final class RemoteCall {
+    private final AtomicBoolean isPermitHeld = new AtomicBoolean(false);
+    private final AtomicReference<Thread> thread = new AtomicReference<>();
+    private volatile boolean isCanceled = false;
+
+    private void cancel() {
+      isCanceled = true;
+      releasePermit();
+      final Thread callThread = thread.getAndSet(null);
+      if (callThread != null) {
+        callThread.interrupt();
+      }
+    }
+
+    private void releasePermit() {
+      if (isPermitHeld.compareAndSet(true, false)) {
+        VALIDATE_PERMITS.release();
+      }
+    }
   }
 }
@@ -0,0 +1,28 @@
+package gateway.service.proxy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class InProcessQuotaStoreTest {
+
+  @Test
+  void grantsUpToBurstThenNothing() {
+    final InProcessQuotaStore quotaStore = new InProcessQuotaStore();
+
+    assertEquals(10L, quotaStore.acquire("test", 10, 1, 25).join());
+    assertEquals(10L, quotaStore.acquire("test", 10, 1, 25).join());
+    // only what is left of the burst
+    assertEquals(5L, quotaStore.acquire("test", 10, 1, 25).join());
+    assertEquals(0L, quotaStore.acquire("test", 10, 1, 25).join());
+  }
+
+  @Test
+  void keysHaveTheirOwnBuckets() {
+    final InProcessQuotaStore quotaStore = new InProcessQuotaStore();
+
+    assertEquals(5L, quotaStore.acquire("test-one", 5, 1, 5).join());
+    assertEquals(0L, quotaStore.acquire("test-one", 5, 1, 5).join());
+    assertEquals(5L, quotaStore.acquire("test-two", 5, 1, 5).join());
+  }
+}
@@ -0,0 +1,194 @@
+package gateway.service.proxy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import gateway.service.dtos.RouteConfig;
+import gateway.service.utils.Constants;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class RateLimiterTest {
+  private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  void bucketAllowsOneRequestPerEmissionInterval() {
+    final RateLimiter.Bucket bucket = new RateLimiter.Bucket("test-rate", 10, 1, null);
+    final long nowNanos = System.nanoTime();
+
+    assertTrue(bucket.tryAcquire(nowNanos));
+    assertFalse(bucket.tryAcquire(nowNanos));
+    assertFalse(bucket.tryAcquire(nowNanos + SECOND_NANOS / 10 - 1));
+    assertTrue(bucket.tryAcquire(nowNanos + SECOND_NANOS / 10));
+    assertFalse(bucket.tryAcquire(nowNanos + SECOND_NANOS / 10));
+  }
+
+  @Test
+  void bucketAllowsBurstThenRejects() {
+    final RateLimiter.Bucket bucket = new RateLimiter.Bucket("test-burst", 10, 5, null);
+    final long nowNanos = System.nanoTime();
+
+    for (int i = 0; i < 5; i++) {
+      assertTrue(bucket.tryAcquire(nowNanos), "request " + i);
+    }
+    assertFalse(bucket.tryAcquire(nowNanos));
+    // one token back per emission interval, not the whole burst
+    assertTrue(bucket.tryAcquire(nowNanos + SECOND_NANOS / 10));
+    assertFalse(bucket.tryAcquire(nowNanos + SECOND_NANOS / 10));
+    // the whole burst back once it has refilled completely
+    final long refilledNanos = nowNanos + SECOND_NANOS;
+    for (int i = 0; i < 5; i++) {
+      assertTrue(bucket.tryAcquire(refilledNanos), "request " + i);
+    }
+    assertFalse(bucket.tryAcquire(refilledNanos));
+  }
+
+  @Test
+  void bucketReleaseRefundsOneToken() {
+    final RateLimiter.Bucket bucket = new RateLimiter.Bucket("test-release", 10, 2, null);
+    final long nowNanos = System.nanoTime();
+
+    assertTrue(bucket.tryAcquire(nowNanos));
+    assertTrue(bucket.tryAcquire(nowNanos));
+    assertFalse(bucket.tryAcquire(nowNanos));
+
+    bucket.release();
+    assertTrue(bucket.tryAcquire(nowNanos));
+    assertFalse(bucket.tryAcquire(nowNanos));
+  }
+
+  @Test
+  void bucketIsIdleOnlyOnceRefilled() {
+    final RateLimiter.Bucket bucket = new RateLimiter.Bucket("test-idle", 10, 5, null);
+    final long nowNanos = System.nanoTime();
+
+    assertTrue(bucket.tryAcquire(nowNanos));
+    assertTrue(bucket.tryAcquire(nowNanos));
+    assertFalse(bucket.isIdle(nowNanos));
+    assertFalse(bucket.isIdle(nowNanos + SECOND_NANOS / 10));
+    assertTrue(bucket.isIdle(nowNanos + SECOND_NANOS / 5));
+  }
+
+  @Test
+  void sweepEvictsRefilledBuckets() {
+    final String apiName = "test-sweep";
+    final RouteConfig routeConfig =
+        new RouteConfig(
+            apiName,
+            Map.of(
+                apiName + Constants.RC_RL_CLIENT_REQUESTS_PER_SECOND, "10",
+                apiName + Constants.RC_RL_CLIENT_BURST, "10"));
+    assertTrue(RateLimiter.tryAcquire(routeConfig, "client-1"));
+    assertTrue(RateLimiter.tryAcquire(routeConfig, "client-2"));
+    final long evicted = (long) RateLimiter.getStats().get("evicted");
+
+    RateLimiter.sweep(System.nanoTime() + SECOND_NANOS);
+    assertTrue((long) RateLimiter.getStats().get("evicted") >= evicted + 2);
+  }
+
+  @Test
+  void leasedBucketsShareTheStoreLimitAcrossReplicas() {
+    final QuotaStore quotaStore = new InProcessQuotaStore();
+    final RateLimiter.Bucket replicaOne =
+        new RateLimiter.Bucket("test-shared", 100, 100, quotaStore);
+    final RateLimiter.Bucket replicaTwo =
+        new RateLimiter.Bucket("test-shared", 100, 100, quotaStore);
+    final long nowNanos = System.nanoTime();
+    final long leases = getStat("leases");
+
+    int allowed = 0;
+    for (int i = 0; i < 200; i++) {
+      allowed += replicaOne.tryAcquire(nowNanos) ? 1 : 0;
+      allowed += replicaTwo.tryAcquire(nowNanos) ? 1 : 0;
+    }
+
+    // the store burst once, plus the first request of each replica allowed locally while its
+    // first lease came in, and whatever the store refilled while the test ran
+    assertTrue(allowed >= 102, "allowed " + allowed);
+    assertTrue(allowed <= 110, "allowed " + allowed);
+    assertTrue(getStat("leases") > leases);
+  }
+
+  @Test
+  void leaseRenewalCarriesOverUnusedTokens() {
+    final QuotaStore quotaStore = grantingStore(10L, 10L);
+    // leases of 10 tokens, a new one is fetched once fewer than 5 are left
+    final RateLimiter.Bucket bucket = new RateLimiter.Bucket("test-carry", 100, 100, quotaStore);
+    final long nowNanos = System.nanoTime();
+
+    int allowed = 0;
+    while (bucket.tryAcquire(nowNanos)) {
+      allowed++;
+      assertTrue(allowed <= 100, "never rejected");
+    }
+
+    // first request allowed locally while the first lease came in, then every granted token
+    assertEquals(1 + 10 + 10, allowed);
+  }
+
+  @Test
+  void expiredLeaseFallsBackToLocalLimit() {
+    final QuotaStore quotaStore = grantingStore(10L);
+    final RateLimiter.Bucket bucket = new RateLimiter.Bucket("test-expiry", 100, 100, quotaStore);
+    final long nowNanos = System.nanoTime();
+
+    assertTrue(bucket.tryAcquire(nowNanos));
+    final long localFallbacks = getStat("localFallbacks");
+    assertTrue(bucket.tryAcquire(nowNanos));
+    assertEquals(localFallbacks, getStat("localFallbacks"));
+    // a live lease keeps the bucket from being swept, its tokens are not spent after it expires
+    assertFalse(bucket.isIdle(nowNanos + SECOND_NANOS / 2));
+
+    final long expiredNanos = nowNanos + 2 * SECOND_NANOS;
+    assertTrue(bucket.tryAcquire(expiredNanos));
+    assertEquals(localFallbacks + 1, getStat("localFallbacks"));
+  }
+
+  @Test
+  void failingStoreFallsBackToLocalLimit() {
+    final QuotaStore quotaStore =
+        (key, requested, requestsPerSecond, burst) ->
+            CompletableFuture.failedFuture(new IllegalStateException("store down"));
+    final RateLimiter.Bucket bucket = new RateLimiter.Bucket("test-failing", 10, 2, quotaStore);
+    final long nowNanos = System.nanoTime();
+    final long leaseFailures = getStat("leaseFailures");
+    final long localFallbacks = getStat("localFallbacks");
+
+    assertTrue(bucket.tryAcquire(nowNanos));
+    assertTrue(bucket.tryAcquire(nowNanos));
+    assertFalse(bucket.tryAcquire(nowNanos));
+    assertEquals(leaseFailures + 3, getStat("leaseFailures"));
+    assertEquals(localFallbacks + 3, getStat("localFallbacks"));
+  }
+
+  @Test
+  void modeIsDistributedOnlyWithQuotaStore() {
+    assertEquals(Constants.RL_MODE_LOCAL, RateLimiter.getStats().get("mode"));
+    try {
+      RateLimiter.setQuotaStore(new InProcessQuotaStore());
+      assertEquals(Constants.RL_MODE_DISTRIBUTED, RateLimiter.getStats().get("mode"));
+    } finally {
+      RateLimiter.setQuotaStore(null);
+    }
+    assertEquals(Constants.RL_MODE_LOCAL, RateLimiter.getStats().get("mode"));
+  }
+
+  // grants the given numbers of tokens one call after the other, and none after that
+  private static QuotaStore grantingStore(final Long... grants) {
+    final Queue<Long> remainingGrants = new ArrayDeque<>(List.of(grants));
+    return (key, requested, requestsPerSecond, burst) -> {
+      final Long granted = remainingGrants.poll();
+      return CompletableFuture.completedFuture(granted == null ? 0L : Math.min(requested, granted));
+    };
+  }
+
+  private static long getStat(final String name) {
+    return (long) RateLimiter.getStats().get(name);
+  }
+}